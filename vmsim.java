@@ -3,32 +3,130 @@
 
 Outline:
 - vmsim class - handle parameters and call appropriate algorithm
-- PageTable class - essentially hold the array of PTEs and provide functions to get and add PTEs
-- PageTableEntry class - each PTE - storing info about the page (frameNum, valid, reference, and dirty bits, as well as GET methods to obtain those values)
-- class for each method - variables for the entire class, a constructor to set variable values, and a run method with helper methods
+- PackedPageTable class - the page table, every PTE (frameNum, valid, reference and dirty bits) packed into one int of a primitive array, with functions to get and add PTEs
+- TraceReader interface - one pass over a tracefile, handing back the pageNum (of up to 64-bit addresses, for any page size), dirty flag and process id of each reference as primitives
+	- MappedTraceReader class - memory-maps the text tracefile and decodes each line straight from its bytes
+	- BinaryTraceReader class - reads the compact binary trace written by 'vmsim convert'
+	- StreamTraceReader class - stdin ("-"), named pipes and gzip input (text or binary), decoded on its own thread into batches
+	- ArrayTraceReader class - replays a MemoryTrace
+- TextTraceLine class - parses one line of a text trace, for MappedTraceReader and StreamTraceReader
+- BinaryTraceRecords class - checks the header of a binary trace and decodes its records, for BinaryTraceReader and StreamTraceReader
+- TraceSource interface - something that can be read from the start any number of times, each algorithm takes one
+	- FileTraceSource class - a tracefile on disk (text or binary)
+	- MemoryTrace class - a whole trace decoded into one int per reference (two for page numbers past 31 bits), shared by the runs of a sweep
+- BinaryTraceWriter class - writes the compact binary trace format
+- EventSink interface - where the per-reference Hit/Page Fault events go
+	- SummarySink class - drops them, only the end-of-run totals are printed
+	- TextSink class - the usual "Hit"/"Page Fault - ..." lines, buffered
+	- BinarySink class - 2 bits per event in a compact binary log
+- ResidentIndex class - reverse map from page id to the frame holding it, so checking the frameTable is O(1)
+- PageDirectory class - page ids for (process, pageNum) pairs, in order of first reference, from an open-addressing hash table
+	- IntIndex class - numbers arbitrary int keys (pids) 0, 1, 2... with an open-addressing hash table
+	- LongIndex class - the same for long keys
+- PageWalk class - optional model of a multi-level radix page table: levels per walk, walk memory accesses and table pages
+- Tlb class - optional set-associative TLB (LRU or random) over page ids in flat arrays, checked before the page table, with shootdowns on eviction
+- NextUseSource interface - hands OPT the next use of each reference in trace order
+	- ArrayNextUse class - from the in-memory next-use array
+	- SpilledNextUse class - computed chunk by chunk in a reverse pass over spill files, for traces that do not fit in memory
+- OptHeap class - indexed max-heap of frames keyed by the next use of the page in each frame, used by OPT to pick a victim in O(log frames)
+- Simulator class - the simulation loop shared by every algorithm: reads the trace, updates the page table, counts hits/faults/writes, per process too
+	- LocalSimulator class - local replacement, one Simulator and policy per process, each with its own quota of frames
+		- ProcessTraces class - splits a trace into one MemoryTrace per process, the trace each local policy sees
+	- Checkpoint class - gzip-compressed snapshots of a Simulator and its policy, for --checkpoint and --resume
+- ReplacementPolicy interface - what an algorithm has to decide: onHit, onLoad, selectVictim and onTick
+	- PolicyRegistry class - maps each -a name to a PolicyFactory, which builds the policy from a PolicyConfig
 	- optAlgo class
 	- clockAlgo class
+	- bitmapClockAlgo class - the same Clock with R/D bits per frame in long[] bitmaps, the hand skips 64 frames per word
 	- nruAlgo class
-	- fifoAlgo class	
+		- NruBuckets class - the four NRU classes as swap-remove arrays with a frame -> slot index
+	- fifoAlgo class - true FIFO, evicts the frame loaded longest ago
+	- secondChanceAlgo class - FIFO that requeues a frame whose page was referenced since it was last looked at
+		- FrameRing class - circular queue of frame indices shared by FIFO and Second-Chance
+	- randAlgo class - evicts a random frame
+	- arcAlgo class - Adaptive Replacement Cache, recency list T1 and frequency list T2 sized by remembering recently evicted pages in ghost lists B1/B2
+	- carAlgo class - Clock with Adaptive Replacement, ARC's adaptation with clocks instead of LRU lists for T1/T2
+		- PageLists class - doubly-linked lists threaded through primitive arrays indexed by pageNum, shared by ARC and CAR
+- Prefetcher interface - optional pages to bring in on a fault besides the one asked for, loaded through the replacement policy
+	- readaheadPrefetcher class - sequential read-ahead per process, a window that doubles while the stream keeps going
+	- stridePrefetcher class - per-process stride detection between faults
+	- oraclePrefetcher class - the faulting process's next pages from a lookahead over the trace, a bound on the others
+- CostModel class - optional simulated time: hit, fault and disk write latencies on one disk, plus a background dirty-page cleaner that batches and coalesces writes
+- Metrics class - optional per-window counters plus sampled reuse-distance and eviction-age histograms for one Simulator, written as CSV or JSON
+	- LogHistogram class - fixed array of log-linear buckets (HdrHistogram-style), records a value without allocating
+- sweepAlgo class - runs a grid of algorithms, frame counts and refresh values in parallel over one MemoryTrace
+- wsAlgo class - Denning's working set W(t,tau), the distinct pages in the last tau references, for several tau in one pass
+- mrcAlgo class - Mattson stack processing, faults and writes for every frame count from one pass over the trace, exact or SHARDS-sampled with error bounds for lru
+	- ReuseDistanceTree class - Fenwick tree over reference times, counts the distinct pages touched since a page's last reference, per group of pages for the sampled curve's error bounds
+- benchAlgo class - 'vmsim bench', reproducible throughput benchmarks of parsing, the page table, residency lookups and every algorithm
 */
 
 //import statements
 import java.lang.*;
 import java.util.Random;
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.Hashtable;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
 
 public class vmsim {
     
     public static void main(String[]args) {
         
-        if(args.length < 5 || args.length == 6 || args.length > 7) {
+        if(args.length > 0 && args[0].equals("convert")) {
+            CONVERT(args);
+            return;
+        }
+        if(args.length > 0 && args[0].equals("mrc")) {
+            MRC(args);
+            return;
+        }
+        if(args.length > 0 && args[0].equals("sweep")) {
+            SWEEP(args);
+            return;
+        }
+        if(args.length > 0 && args[0].equals("ws")) {
+            WS(args);
+            return;
+        }
+        if(args.length > 0 && args[0].equals("bench")) {
+            BENCH(args);
+            return;
+        }
+        if(args.length < 5 || args.length % 2 == 0) {
             System.out.println("Error: invalid number of parameters supplied");
 			return;
         }
@@ -36,806 +134,4973 @@ public class vmsim {
         int numFrames=0;
         String pickedAlg="";
         int refresh = -1;
+        long bufferMB = 0;
+        String output = "text";
+        long window = 0;
+        String statsFile = null;
+        String scope = "global";
+        int pageShift = TraceReader.DEFAULT_PAGE_SHIFT;
+        int vaBits = 0;
+        Tlb tlb = null;
+        Tlb hugeTlb = null;
+        String latencies = null;
+        String cleaner = null;
+        Prefetcher prefetcher = null;
+        String checkpoint = null;
+        long checkpointInterval = Checkpoint.DEFAULT_INTERVAL;
+        String resume = null;
         String tracefile = "";
-		int totalMemAcc=0, totalPgFaults=0, totalWritesToDisk=0;
         
-        if(!args[0].equals("-n")) {
-            System.out.println("Error: invalid first parameter supplied. Should be '-n'"); 
+        //every parameter is a flag followed by its value, the tracefile comes last
+        for(int i=0; i<args.length-1; i+=2) {
+            if(args[i].equals("-n")) {
+                numFrames = Integer.parseInt(args[i+1]);
+            }
+            else if(args[i].equals("-a")) {
+                pickedAlg = args[i+1];
+            }
+            else if(args[i].equals("-r")) {
+                refresh = Integer.parseInt(args[i+1]);
+            }
+            else if(args[i].equals("-o")) {
+                output = args[i+1];
+            }
+            else if(args[i].equals("-b")) {
+                bufferMB = Long.parseLong(args[i+1]);
+            }
+            else if(args[i].equals("-w")) {
+                window = Long.parseLong(args[i+1]);
+            }
+            else if(args[i].equals("-s")) {
+                statsFile = args[i+1];
+            }
+            else if(args[i].equals("-m")) {
+                scope = args[i+1];
+            }
+            else if(args[i].equals("-z")) {
+                pageShift = parsePageSize(args[i+1]);
+                if(pageShift < 0) {
+                    System.out.println("Error: '-z' is the page size, a power of two from 4K to 1G such as 4096, 4K or 2M");
+                    return;
+                }
+            }
+            else if(args[i].equals("-v")) {
+                vaBits = Integer.parseInt(args[i+1]);
+            }
+            else if(args[i].equals("-t") || args[i].equals("-u")) {
+                //-t <entries>:<ways>[:lru|random] for the TLB, -u the same for the huge-page TLB used with 2MB or bigger pages
+                Tlb parsed = Tlb.parse(args[i+1]);
+                if(parsed == null) {
+                    System.out.println("Error: '"+args[i]+"' is a TLB as <entries>:<ways>[:lru|random], with entries/ways a power of two");
+                    return;
+                }
+                if(args[i].equals("-t")) tlb = parsed;
+                else hugeTlb = parsed;
+            }
+            else if(args[i].equals("-c")) {
+                latencies = args[i+1];
+            }
+            else if(args[i].equals("-k")) {
+                cleaner = args[i+1];
+            }
+            else if(args[i].equals("-f")) {
+                //-f seq[:<max window>], stride[:<degree>] or oracle[:<degree>] prefetches pages on a fault
+                prefetcher = Prefetcher.create(args[i+1]);
+                if(prefetcher == null) {
+                    System.out.println("Error: '-f' is the prefetcher as seq[:<max window>], stride[:<degree>] or oracle[:<degree>], from 1 to "+Prefetcher.MAX_PAGES);
+                    return;
+                }
+            }
+            else if(args[i].equals("--checkpoint")) {
+                //--checkpoint <file>[:<refs>] snapshots the simulation every refs references
+                checkpoint = args[i+1];
+                int colon = checkpoint.lastIndexOf(':');
+                if(colon > 0 && checkpoint.substring(colon+1).matches("[0-9]+")) {
+                    checkpointInterval = Long.parseLong(checkpoint.substring(colon+1));
+                    checkpoint = checkpoint.substring(0, colon);
+                }
+                if(checkpointInterval < 1) {
+                    System.out.println("Error: '--checkpoint' is <file>[:<refs>], with refs greater than 0");
+                    return;
+                }
+            }
+            else if(args[i].equals("--resume")) {
+                resume = args[i+1];
+            }
+            else {
+                System.out.println("Error: invalid parameter '"+args[i]+"' supplied. Expected '-n', '-a', '-r', '-o', '-b', '-w', '-s', '-m', '-z', '-v', '-t', '-u', '-c', '-k', '-f', '--checkpoint' or '--resume'");
+                return;
+            }
+        }
+        if(numFrames < 1) {
+            System.out.println("Error: '-n' not supplied. Expected a number of frames greater than 0");
+            return;
+        }
+        if(pickedAlg.equals("")) {
+            System.out.println("Error: '-a' not supplied.");
+            return;
+        }
+        if(bufferMB != 0 && (!pickedAlg.equals("opt") || bufferMB < 1)) {
+            System.out.println("Error: '-b' is the memory buffer in MB for streaming opt, and should be greater than 0. On top of it, every distinct page takes about 32 bytes");
+            return;
+        }
+        if(window != 0 && (statsFile == null || window < 1)) {
+            System.out.println("Error: '-w' is the window size in references for the '-s' stats file, and should be greater than 0");
+            return;
+        }
+        //-m global (default): all processes share the -n frames, local: every process gets -n frames of its own
+        if(!scope.equals("global") && !scope.equals("local")) {
+            System.out.println("Error: invalid replacement scope supplied. Should be 'global' or 'local'");
+            return;
+        }
+        if(scope.equals("local") && statsFile != null) {
+            System.out.println("Error: '-s' is only supported with global replacement");
+            return;
+        }
+        //-v <bits> models the radix page table of a bits-wide virtual address space and counts its walks
+        if(vaBits != 0 && (vaBits < 32 || vaBits > 64)) {
+            System.out.println("Error: '-v' is the virtual address width in bits, from 32 to 64");
+            return;
+        }
+        //-c <hit>:<fault>:<write>[:<transfer>] latencies in ns for simulated time, -k <batch>[:<watermark %>[:<idle ns>]] adds the page cleaner
+        CostModel cost = null;
+        if(latencies != null || cleaner != null) {
+            cost = CostModel.parse(latencies == null ? CostModel.DEFAULT_LATENCIES : latencies);
+            if(cost == null) {
+                System.out.println("Error: '-c' is the latencies in ns as <hit>:<fault>:<write>[:<transfer>]");
+                return;
+            }
+            if(cleaner != null && !cost.setCleaner(cleaner)) {
+                System.out.println("Error: '-k' is the page cleaner as <batch>[:<watermark %>[:<idle ns>]]");
+                return;
+            }
+        }
+        if(scope.equals("local") && (vaBits != 0 || tlb != null || hugeTlb != null || cost != null || prefetcher != null || checkpoint != null || resume != null)) {
+            System.out.println("Error: '-v', '-t', '-u', '-c', '-k', '-f', '--checkpoint' and '--resume' are only supported with global replacement");
+            return;
+        }
+        //a snapshot holds the page table, frames, counters and policy. The page walk, prefetcher and windowed stats depend
+        //on everything before them, so they cannot be picked up halfway. A TLB and simulated time simply start at the
+        //resume point, which is also how to try them out on one warmed-up state.
+        if((checkpoint != null || resume != null) && (vaBits != 0 || prefetcher != null || statsFile != null)) {
+            System.out.println("Error: '--checkpoint' and '--resume' cannot be combined with '-v', '-f' or '-s'");
             return;
         }
-        numFrames = Integer.parseInt(args[1]);
+        tracefile = args[args.length-1];
         
-        if(!args[2].equals("-a")) {
-            System.out.println("Error: invalid second parameter supplied. Should be '-a'"); 
+        //now that all of the parameters have been set, build the policy - the registry knows every -a name
+        PolicyConfig config = new PolicyConfig(numFrames);
+        config.refresh = refresh;
+        config.bufferBytes = bufferMB << 20;
+        ReplacementPolicy policy;
+        try {
+            policy = PolicyRegistry.create(pickedAlg, config);
+        } catch(IllegalArgumentException e) {
+            System.out.println("Error: "+e.getMessage());
             return;
         }
-        pickedAlg = args[3];
         
-        if(pickedAlg.equals("nru")) {
-			if(!args[4].equals("-r")) {
-				System.out.println("Error: '-r' not supplied.");
+        try {
+        //-o picks what is printed for each memory reference: summary (nothing), text (default) or binary[:file]
+        EventSink events = EventSink.create(output, tracefile);
+        if(events == null) {
+            System.out.println("Error: invalid output mode supplied. Should be 'summary', 'text', 'binary' or 'binary:<file>'");
+            return;
+        }
+        //the tracefile may be "-" for stdin, a named pipe or a .gz file. OPT and the oracle prefetcher read the trace
+        //ahead of the simulation, so stdin or a pipe, which can only be read once, is held in memory for them
+        TraceSource trace = new FileTraceSource(tracefile, pageShift);
+        if(TraceReader.isPipe(tracefile) && (pickedAlg.equals("opt") || (prefetcher != null && prefetcher.readsAhead()))) {
+            if(bufferMB != 0) {
+                System.out.println("Error: '-b' spills the trace to disk in a second pass, it cannot read stdin or a pipe");
+                return;
+            }
+            trace = MemoryTrace.load(trace);
+        }
+        if(scope.equals("local")) {
+            LocalSimulator local = new LocalSimulator(trace, numFrames, pickedAlg, config, events);
+            local.run();
+            events.close();
+            return;
+        }
+        Simulator sim = new Simulator(trace, numFrames, policy, events);
+        sim.setPageShift(pageShift);
+        if(vaBits != 0) {
+            sim.setPageWalk(new PageWalk(vaBits, pageShift));
+        }
+        //every page is the one size, so only one of the TLBs is in use: the huge-page one for 2MB pages and up if it was given
+        boolean huge = pageShift >= Tlb.HUGE_PAGE_SHIFT && hugeTlb != null;
+        if(huge || tlb != null) {
+            sim.setTlb(huge ? hugeTlb : tlb, huge);
+        }
+        if(cost != null) {
+            sim.setCostModel(cost);
+        }
+        if(prefetcher != null) {
+            sim.setPrefetcher(prefetcher);
+        }
+        if(checkpoint != null) {
+            sim.setCheckpoint(checkpoint, checkpointInterval);
+        }
+        if(resume != null) {
+            sim.setResume(resume);
+        }
+        if(statsFile != null) {		//-s <file.csv|file.json> [-w <refs>] - windowed counters and histograms alongside the summary, for CSV the histograms go to <file>-histograms.csv
+            sim.setMetrics(new Metrics(statsFile, window == 0 ? Metrics.DEFAULT_WINDOW : window));
+        }
+        sim.run();
+        events.close();
+        } catch(IOException e) {
+            e.printStackTrace();
+        }
+    }
+    
+	public static void CONVERT(String[] args) {
+		//vmsim convert [-d] [-p] [-z <pagesize>] <tracefile> <binaryfile> - rewrite a tracefile in the compact binary format,
+		//-d for delta/varint records, -p to keep process ids, -z for the page size of the page numbers written (4K by default)
+		boolean delta = false;
+		boolean pids = false;
+		int pageShift = TraceReader.DEFAULT_PAGE_SHIFT;
+		boolean valid = args.length >= 3 && args.length <= 7;
+		for(int i=1; valid && i<args.length-2; i++) {
+			if(args[i].equals("-d")) delta = true;
+			else if(args[i].equals("-p")) pids = true;
+			else if(args[i].equals("-z") && i+1 < args.length-2) pageShift = parsePageSize(args[++i]);
+			else valid = false;
+		}
+		if(!valid) {
+			System.out.println("Error: usage is 'vmsim convert [-d] [-p] [-z <pagesize>] <tracefile> <binaryfile>'");
+			return;
+		}
+		if(pageShift < 0) {
+			System.out.println("Error: '-z' is the page size, a power of two from 4K to 1G such as 4096, 4K or 2M");
+			return;
+		}
+		String in = args[args.length-2];
+		String out = args[args.length-1];
+		try {
+			TraceReader reader = TraceReader.open(in, pageShift);
+			BinaryTraceWriter writer = new BinaryTraceWriter(out, delta, pids, pageShift);
+			while(reader.next()) {
+				writer.write(reader.pid(), reader.pageNum(), reader.dirty());
+			}
+			reader.close();
+			writer.close();
+			if(TraceReader.isPipe(in)) System.out.println("Converted "+writer.getCount()+" references: "+new File(out).length()+" bytes");
+			else System.out.println("Converted "+writer.getCount()+" references: "+new File(in).length()+" bytes -> "+new File(out).length()+" bytes");
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+	public static void MRC(String[] args) {
+		//vmsim mrc -a <lru|opt> [-m <maxFrames>] [-z <pagesize>] [-r <rate>] [-s <pages>] <tracefile> - faults and writes for every frame
+		//count 1..maxFrames in one pass, as CSV. For lru, -r and -s sample the pages for an approximate curve with 95% bounds
+		if(args.length < 4 || args.length > 12 || args.length % 2 != 0) {
+			System.out.println("Error: usage is 'vmsim mrc -a <lru|opt> [-m <maxFrames>] [-z <pagesize>] [-r <rate>] [-s <pages>] <tracefile>'");
+			return;
+		}
+		String pickedAlg = "";
+		int maxFrames = 65536;
+		int pageShift = TraceReader.DEFAULT_PAGE_SHIFT;
+		double rate = 0;
+		int sampleSize = 0;
+		for(int i=1; i<args.length-1; i+=2) {
+			if(args[i].equals("-a")) {
+				pickedAlg = args[i+1];
+			}
+			else if(args[i].equals("-m")) {
+				maxFrames = Integer.parseInt(args[i+1]);
+			}
+			else if(args[i].equals("-z")) {
+				pageShift = parsePageSize(args[i+1]);
+				if(pageShift < 0) {
+					System.out.println("Error: '-z' is the page size, a power of two from 4K to 1G such as 4096, 4K or 2M");
+					return;
+				}
+			}
+			else if(args[i].equals("-r")) {
+				rate = Double.parseDouble(args[i+1]);
+				if(!(rate > 0 && rate <= 1)) {
+					System.out.println("Error: '-r' is the sampling rate, greater than 0 and at most 1. Aim for a few hundred sampled pages, rate times the distinct pages, at the least");
+					return;
+				}
+			}
+			else if(args[i].equals("-s")) {
+				sampleSize = Integer.parseInt(args[i+1]);
+				if(sampleSize < 1) {
+					System.out.println("Error: '-s' is the number of pages to sample, greater than 0");
+					return;
+				}
+			}
+			else {
+				System.out.println("Error: invalid parameter '"+args[i]+"' supplied. Expected '-a', '-m', '-z', '-r' or '-s'");
+				return;
+			}
+		}
+		if(!pickedAlg.equals("lru") && !pickedAlg.equals("opt")) {
+			System.out.println("Error: invalid algorithm name supplied. The only curves available are: lru and opt");
+			return;
+		}
+		if(maxFrames < 1) {
+			System.out.println("Error: '-m' should be greater than 0");
+			return;
+		}
+		if((rate > 0 || sampleSize > 0) && !pickedAlg.equals("lru")) {
+			System.out.println("Error: '-r' and '-s' sample the lru curve only");
+			return;
+		}
+		mrcAlgo runMRC = new mrcAlgo(args[args.length-1], maxFrames, pickedAlg, pageShift);
+		if(rate > 0 || sampleSize > 0) {
+			runMRC.setSampling(rate > 0 ? rate : 1, sampleSize);		//a sample size alone starts from every page
+		}
+		runMRC.run();
+	}
+	public static void WS(String[] args) {
+		//vmsim ws -t <taus> [-i <interval>] [-z <pagesize>] <tracefile> - working-set size W(t,tau) for every tau in one pass, as CSV
+		if(args.length < 4 || args.length > 8 || args.length % 2 != 0) {
+			System.out.println("Error: usage is 'vmsim ws -t <list> [-i <interval>] [-z <pagesize>] <tracefile>'");
+			return;
+		}
+		int[] taus = null;
+		long interval = Metrics.DEFAULT_WINDOW;
+		int pageShift = TraceReader.DEFAULT_PAGE_SHIFT;
+		for(int i=1; i<args.length-1; i+=2) {
+			if(args[i].equals("-t")) {
+				taus = sweepAlgo.parseList(args[i+1]);
+				if(taus == null) {
+					System.out.println("Error: '-t' is a list of numbers and ranges, such as 1000,10000 or 1000-64000 or 1000-10000:1000");
+					return;
+				}
+			}
+			else if(args[i].equals("-i")) {
+				interval = parseCount(args[i+1]);
+			}
+			else if(args[i].equals("-z")) {
+				pageShift = parsePageSize(args[i+1]);
+				if(pageShift < 0) {
+					System.out.println("Error: '-z' is the page size, a power of two from 4K to 1G such as 4096, 4K or 2M");
+					return;
+				}
+			}
+			else {
+				System.out.println("Error: invalid parameter '"+args[i]+"' supplied. Expected '-t', '-i' or '-z'");
+				return;
+			}
+		}
+		if(taus == null) {
+			System.out.println("Error: '-t' not supplied.");
+			return;
+		}
+		for(int tau : taus) {
+			if(tau < 1) {
+				System.out.println("Error: window sizes should be greater than 0");
 				return;
 			}
+		}
+		if(interval < 1) {
+			System.out.println("Error: '-i' should be greater than 0");
+			return;
+		}
+		wsAlgo runWS = new wsAlgo(args[args.length-1], taus, interval, pageShift);
+		runWS.run();
+	}
+	public static void BENCH(String[] args) {
+		//vmsim bench [-w <warmups>] [-i <iterations>] [-s <refs>] [-o <file.csv>] - parsing, page table, residency and
+		//end-to-end throughput of every algorithm over synthetic traces, as CSV
+		int warmups = 3, iterations = 5, numRefs = 2000000;
+		String outFile = null;
+		if(args.length % 2 != 1) {
+			System.out.println("Error: usage is 'vmsim bench [-w <warmups>] [-i <iterations>] [-s <refs>] [-o <file.csv>]'");
+			return;
+		}
+		for(int i=1; i<args.length; i+=2) {
+			if(args[i].equals("-w")) warmups = Integer.parseInt(args[i+1]);
+			else if(args[i].equals("-i")) iterations = Integer.parseInt(args[i+1]);
+			else if(args[i].equals("-s")) numRefs = Integer.parseInt(args[i+1]);
+			else if(args[i].equals("-o")) outFile = args[i+1];
 			else {
-				if(args.length < 6) {
-					System.out.println("Error: refresh parameter value not supplied. Expected after '-r'");
+				System.out.println("Error: invalid parameter '"+args[i]+"' supplied. Expected '-w', '-i', '-s' or '-o'");
+				return;
+			}
+		}
+		if(iterations < 1 || numRefs < 1) {
+			System.out.println("Error: '-i' and '-s' should be greater than 0");
+			return;
+		}
+		try {
+			PrintWriter out = (outFile == null) ? new PrintWriter(System.out) : new PrintWriter(new FileWriter(outFile));
+			benchAlgo bench = new benchAlgo(warmups, iterations, numRefs, out);
+			bench.run();
+			out.close();
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+	public static void SWEEP(String[] args) {
+		//vmsim sweep -a <algs> -n <frames> [-r <refreshes>] [-p <threads>] [-s <file> [-w <refs>]] [-z <pagesize>] <tracefile> - every combination, one decoded copy of the trace
+		if(args.length < 6 || args.length % 2 != 0) {
+			System.out.println("Error: usage is 'vmsim sweep -a <opt,clock,...> -n <list> [-r <list>] [-p <threads>] [-s <file> [-w <refs>]] [-z <pagesize>] <tracefile>'");
+			return;
+		}
+		String[] algs = null;
+		int[] frames = null;
+		int[] refreshes = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		String statsFile = null;
+		long window = Metrics.DEFAULT_WINDOW;
+		int pageShift = TraceReader.DEFAULT_PAGE_SHIFT;
+		for(int i=1; i<args.length-1; i+=2) {
+			if(args[i].equals("-a")) {
+				algs = args[i+1].split(",");
+			}
+			else if(args[i].equals("-n") || args[i].equals("-r")) {
+				int[] list = sweepAlgo.parseList(args[i+1]);
+				if(list == null) {
+					System.out.println("Error: '"+args[i]+"' is a list of numbers and ranges, such as 8,12 or 8-1024 or 100-1000:100");
 					return;
 				}
-				else {
-					refresh = Integer.parseInt(args[5]);
+				if(args[i].equals("-n")) frames = list;
+				else refreshes = list;
+			}
+			else if(args[i].equals("-p")) {
+				long n = parseCount(args[i+1]);
+				if(n < 1 || n > 32767) {		//what a ForkJoinPool can take
+					System.out.println("Error: '-p' is the number of threads, from 1 to 32767");
+					return;
+				}
+				threads = (int)n;
+			}
+			else if(args[i].equals("-s")) {
+				statsFile = args[i+1];
+			}
+			else if(args[i].equals("-w")) {
+				window = parseCount(args[i+1]);
+			}
+			else if(args[i].equals("-z")) {
+				pageShift = parsePageSize(args[i+1]);
+				if(pageShift < 0) {
+					System.out.println("Error: '-z' is the page size, a power of two from 4K to 1G such as 4096, 4K or 2M");
+					return;
 				}
 			}
+			else {
+				System.out.println("Error: invalid parameter '"+args[i]+"' supplied. Expected '-a', '-n', '-r', '-p', '-s', '-w' or '-z'");
+				return;
+			}
 		}
-        tracefile = args[args.length-1];
-        //open the tracefile and check to make sure they supplied a valid tracefile name
-        
-        //now that all of the parameters have been set...
-        
-        if(pickedAlg.equals("opt")) {
-            OPT(tracefile, numFrames);
-        }
-        else if(pickedAlg.equals("clock")) {
-            CLOCK(tracefile, numFrames);
-        }
-        else if(pickedAlg.equals("nru")) {
-            NRU(tracefile, numFrames, refresh);
-        }
-		else if(pickedAlg.equals("fifo"))
-		{
-			FIFO(tracefile, numFrames);
+		if(algs == null || frames == null) {
+			System.out.println("Error: '-a' and '-n' must both be supplied.");
+			return;
 		}
-        else {
-            System.out.println("Error: invalid algorithm name supplied. The only algorithms available are: opt, clock, nru, and rand");
-            return;
-        }
-		
-		
-        //Keep these in each algorithm's implementation, not in main method
-        /*System.out.println("Total memory accesses:  "+totalMemAcc+"");
-        System.out.println("Total page faults:  "+totalPgFaults+"");
-        System.out.println("Total writes to disk:   "+totalWritesToDisk+"");*/
-        
-    }
-    
-    public static void OPT(String tracefile, int frames) {
-        //opt algorithm   
-		optAlgo runOPT = new optAlgo(tracefile, frames);
-		runOPT.run();
-    }
-    public static void CLOCK(String tracefile, int frames) {
-        //clock algorithm   
-		clockAlgo runCLOCK = new clockAlgo(tracefile, frames);
-		runCLOCK.run();
-    }
-    public static void NRU(String tracefile, int frames, int refresh) {
-        //nru algorithm  
-		nruAlgo runNRU = new nruAlgo(tracefile, frames, refresh);
-		runNRU.run();
-    }
-	public static void FIFO(String tracefile, int frames) {
-        //fifo algorithm   
-		fifoAlgo runFIFO = new fifoAlgo(tracefile, frames); 
-		runFIFO.run();
-    }
+		for(String alg : algs) {
+			if(!PolicyRegistry.contains(alg)) {
+				System.out.println("Error: invalid algorithm name supplied. The only algorithms available are: "+PolicyRegistry.names());
+				return;
+			}
+			if(alg.equals("nru") && refreshes == null) {
+				System.out.println("Error: '-r' not supplied.");
+				return;
+			}
+		}
+		for(int n : frames) {
+			if(n < 1) {
+				System.out.println("Error: frame counts should be greater than 0");
+				return;
+			}
+		}
+		for(int r : refreshes == null ? new int[0] : refreshes) {
+			if(r < 1) {
+				System.out.println("Error: refresh values should be greater than 0");
+				return;
+			}
+		}
+		if(window < 1) {
+			System.out.println("Error: '-w' should be greater than 0");
+			return;
+		}
+		try {
+			sweepAlgo runSWEEP = new sweepAlgo(MemoryTrace.load(new FileTraceSource(args[args.length-1], pageShift)), algs, frames, refreshes, threads);
+			if(statsFile != null) runSWEEP.setMetrics(statsFile, window);
+			runSWEEP.run();
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+	public static long parseCount(String count) {		//the number, -1 if it is not one
+		try {
+			return Long.parseLong(count);
+		} catch(NumberFormatException e) {
+			return -1;
+		}
+	}
+	public static int parsePageSize(String size) {
+		//"4096", "4K", "2M", "1G" -> log2 of the page size, -1 unless it is a power of two from 4KB to 1GB
+		long bytes;
+		try {
+			char unit = Character.toUpperCase(size.charAt(size.length()-1));
+			int scale = unit == 'K' ? 10 : unit == 'M' ? 20 : unit == 'G' ? 30 : 0;
+			bytes = Long.parseLong(scale == 0 ? size : size.substring(0, size.length()-1)) << scale;
+		} catch(NumberFormatException | StringIndexOutOfBoundsException e) {
+			return -1;
+		}
+		if(bytes < 4096 || bytes > (1L << 30) || Long.bitCount(bytes) != 1) return -1;
+		return Long.numberOfTrailingZeros(bytes);
+	}
 }
 
-class PageTable {
-	private int pageSize = 4096;	//2^12
-	private int numPages = 1048576;	//2^20
-	private PageTableEntry[] table;
+class PackedPageTable {
+	//each PTE is one int: bit 0 = valid, bit 1 = reference, bit 2 = dirty, bit 3 = entry exists, bits 4-31 = frameNum
+	private static final int V_BIT = 1;
+	private static final int R_BIT = 2;
+	private static final int D_BIT = 4;
+	private static final int PRESENT_BIT = 8;
+	private static final int FRAME_SHIFT = 4;
+	private int[] table;
 	
-	public PageTable() {
-		this.table = new PageTableEntry[numPages];
+	public PackedPageTable() {
+		this(1048576);	//2^20, one entry per page number
+	}
+	public PackedPageTable(int numPages) {
+		this.table = new int[numPages];
 	}
-	public PageTableEntry getPage(int pageNum) {
-		return this.table[pageNum];
+	public void grow(int numPages) {		//new entries are absent
+		this.table = Arrays.copyOf(this.table, numPages);
+	}
+	public boolean contains(int pageNum) {
+		return this.table[pageNum] != 0;
 	}
 	public boolean addPage(int pageNum, int valid, int reference, int dirty, int frameNum) {
-		if(this.table[pageNum]==null) {
-			PageTableEntry temp = new PageTableEntry(frameNum, valid, reference, dirty);
-			this.table[pageNum] = temp;
+		if(this.table[pageNum]==0) {
+			this.table[pageNum] = (frameNum << FRAME_SHIFT) | PRESENT_BIT | (dirty!=0 ? D_BIT : 0) | (reference!=0 ? R_BIT : 0) | (valid!=0 ? V_BIT : 0);
 			return true;
 		}
 		return false;
 	}
+	public int getFrameNum(int pageNum) {
+		return this.table[pageNum] >>> FRAME_SHIFT;
+	}
+	public void setFrameNum(int pageNum, int f) {
+		this.table[pageNum] = (this.table[pageNum] & ((1 << FRAME_SHIFT) - 1)) | (f << FRAME_SHIFT);
+	}
+	public int getV(int pageNum) {
+		return this.table[pageNum] & V_BIT;
+	}
+	public void setV(int pageNum, int v) {
+		setBit(pageNum, V_BIT, v);
+	}
+	public int getR(int pageNum) {
+		return (this.table[pageNum] & R_BIT) >>> 1;
+	}
+	public void setR(int pageNum, int r) {
+		setBit(pageNum, R_BIT, r);
+	}
+	public int getD(int pageNum) {
+		return (this.table[pageNum] & D_BIT) >>> 2;
+	}
+	public void setD(int pageNum, int d) {
+		setBit(pageNum, D_BIT, d);
+	}
+	private void setBit(int pageNum, int bit, int value) {
+		if(value!=0) this.table[pageNum] |= bit;
+		else this.table[pageNum] &= ~bit;
+	}
+	public void save(DataOutputStream out, int numPages) throws IOException {		//the PTEs of the first numPages pages, for a checkpoint
+		Checkpoint.writeInts(out, this.table, numPages);
+	}
+	public void restore(DataInputStream in) throws IOException {
+		this.table = Checkpoint.readInts(in, this.table.length);
+	}
+}
+
+interface TraceReader {
+	public boolean next() throws IOException;	//advance to the next reference, false at the end of the trace
+	public static final int DEFAULT_PAGE_SHIFT = 12;		//4KB pages
+	public long pageNum();		//page number of the current reference, its address shifted right by the page size
+	public int dirty();		//1 if the current reference is a write, else 0
+	public int pid();		//process that made the current reference, 0 in single-process traces
+	public long sizeHint();		//expected number of references, used to size arrays up front
+	public void close() throws IOException;
+	public default long[] position() {		//where the next reference is, for a checkpoint, null if the reader can only be read through
+		return null;
+	}
+	public default void seek(long[] position) throws IOException {		//back to a position() of a reader of the same class and file
+		throw new IOException("This trace cannot be seeked");
+	}
+	
+	public static TraceReader open(String filename) throws IOException {
+		return open(filename, DEFAULT_PAGE_SHIFT);
+	}
+	public static TraceReader open(String filename, int pageShift) throws IOException {
+		//"-" (stdin), pipes and .gz files are decoded as they stream in, anything else is mapped
+		if(isPipe(filename) || filename.endsWith(".gz")) {
+			return new StreamTraceReader(filename, pageShift);
+		}
+		//binary traces written by 'vmsim convert' start with a magic number, anything else is a text tracefile
+		if(BinaryTraceReader.isBinary(filename)) {
+			return new BinaryTraceReader(filename, pageShift);
+		}
+		return new MappedTraceReader(filename, pageShift);
+	}
+	public static boolean isPipe(String filename) {		//stdin or a named pipe, which can only be read once
+		File f = new File(filename);
+		return filename.equals("-") || (f.exists() && !f.isFile() && !f.isDirectory());
+	}
 }
 
-class PageTableEntry {
-	private int frameNum;
-	private int v;
-	private int r;
-	private int d;
+class TextTraceLine {
+	//one line of a text trace, "XXXXXXXX R" or "XXXXXXXX R pid": a hex address of up to 64 bits (an optional 0x in
+	//front), then R or W, then an optional decimal process id. MappedTraceReader and StreamTraceReader both parse with it
+	private static final byte[] HEX = new byte[256];	//hex digit value of each byte, -1 if not a hex digit
+	static {
+		Arrays.fill(HEX, (byte)-1);
+		for(int i=0; i<10; i++) HEX['0'+i] = (byte)i;
+		for(int i=0; i<6; i++) {
+			HEX['a'+i] = (byte)(10+i);
+			HEX['A'+i] = (byte)(10+i);
+		}
+	}
+	private String name;		//of the tracefile, for errors
+	private int pageShift;
+	public long pageNum;		//of the last line that was not blank
+	public int dirty, pid;
+	public int end;		//where the last line parsed stopped, at its newline or the end of the bytes given
+	
+	public TextTraceLine(String name, int pageShift) {
+		this.name = name;
+		this.pageShift = pageShift;
+	}
+	public boolean parse(ByteBuffer buf, int from, int to, long offset) throws IOException {
+		//the line starting at from, false if it is blank. offset is where buf starts in the file
+		int i = from;
+		long address = 0;
+		int digits = 0;
+		int field = -1;		//which whitespace-separated field the current byte is in
+		boolean inField = false;
+		byte op = 0;
+		int process = 0;
+		byte b = 0;
+		while(i < to && (b = buf.get(i)) != '\n') {
+			if(b == ' ' || b == '\t' || b == '\r') {
+				inField = false;
+			}
+			else {
+				if(!inField) {
+					field++;
+					inField = true;
+				}
+				if(field == 0) {
+					int h = HEX[b & 0xff];
+					if(h >= 0) {
+						if(digits == 16) throw new IOException("Address wider than 64 bits in "+name+" at byte "+(offset+from));
+						address = (address << 4) | h;
+						digits++;
+					}
+					else if((b == 'x' || b == 'X') && digits == 1 && address == 0) {
+						digits = 0;		//the 0x prefix
+					}
+					else {
+						throw new IOException("Invalid address in "+name+" at byte "+(offset+from));
+					}
+				}
+				else if(field == 1) {
+					if(op == 0) op = b;
+				}
+				else if(field == 2) {
+					if(b < '0' || b > '9') throw new IOException("Invalid process id in "+name+" at byte "+(offset+from));
+					process = process*10 + (b - '0');
+				}
+			}
+			i++;
+		}
+		end = i;
+		if(digits == 0) return false;
+		pageNum = address >>> pageShift;
+		dirty = (op == 'W') ? 1 : 0;
+		pid = process;
+		return true;
+	}
+}
+
+class MappedTraceReader implements TraceReader {
+	private static final long WINDOW = 1L << 30;	//map at most 1GB of the tracefile at a time
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private long fileSize;
+	private long windowStart;	//file offset of the first byte in buf
+	private MappedByteBuffer buf;
+	private int limit;		//only whole lines are parsed from a window, the rest is mapped again in the next one
+	private int pos;
+	private TextTraceLine line;
 	
-	public PageTableEntry(int frameNum, int valid, int reference, int dirty) {
-		this.frameNum = frameNum;
-		this.v = valid;
-		this.r = reference;
-		this.d = dirty;
+	public MappedTraceReader(String filename, int pageShift) throws IOException {
+		this.line = new TextTraceLine(filename, pageShift);
+		this.file = new RandomAccessFile(filename, "r");
+		this.channel = file.getChannel();
+		this.fileSize = channel.size();
+		this.windowStart = 0;
+		this.limit = 0;
+		this.pos = 0;
+		map();
 	}
-	public int getFrameNum() {
-		return this.frameNum;
+	public boolean next() throws IOException {
+		while(true) {
+			if(pos >= limit) {
+				windowStart += limit;
+				if(windowStart >= fileSize) return false;
+				map();
+				continue;
+			}
+			boolean found = line.parse(buf, pos, limit, windowStart);
+			pos = line.end + 1;
+			if(found) return true;		//blank lines are skipped
+		}
 	}
-	public void setFrameNum(int f) {
-		this.frameNum=f;
+	public long pageNum() {
+		return line.pageNum;
 	}
-	public int getV() {
-		return this.v;
+	public int dirty() {
+		return line.dirty;
 	}
-	public void setV(int v) {
-		this.v=v;
+	public int pid() {
+		return line.pid;
 	}
-	public int getR() {
-		return this.r;
+	public long sizeHint() {
+		return fileSize/11 + 16;		//lines are "XXXXXXXX R"
 	}
-	public void setR(int r) {
-		this.r=r;
+	public void close() throws IOException {
+		channel.close();
+		file.close();
 	}
-	public int getD() {
-		return this.d;
+	public long[] position() {
+		return new long[] { windowStart + pos };		//pos is always at the start of a line
 	}
-	public void setD(int d) {
-		this.d=d;
+	public void seek(long[] position) {
+		windowStart = position[0];
+		limit = 0;
+		pos = 0;		//next() maps the window from there
+	}
+	private void map() throws IOException {
+		long size = Math.min(WINDOW, fileSize - windowStart);
+		buf = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, size);
+		pos = 0;
+		if(windowStart + size == fileSize) {
+			limit = (int)size;		//last window, the final line may not end in a newline
+			return;
+		}
+		int end = (int)size - 1;
+		while(end >= 0 && buf.get(end) != '\n') end--;
+		if(end < 0) throw new IOException("Tracefile line longer than "+WINDOW+" bytes at byte "+windowStart);
+		limit = end + 1;
 	}
 }
 
-class optAlgo {
-	private String filename;
-	private int numFrames;
-	private int totalMemAcc, totalPgFaults, totalWritesToDisk;
-	private int[] frameTable;
-	private PageTable table;
-	private Random rand;
-	private Hashtable<Integer, LinkedList<Integer>> hashtable;
+/*
+Binary trace format:
+- 16 byte header: magic "VMSB", version (1), flags (bit 0 = delta/varint records, bit 1 = process ids), page shift the
+  page numbers were written with (0 in older files, meaning 12), 1 reserved byte, number of references (8 bytes, big-endian)
+- with process ids, every record is preceded by the pid as a varint, 1 to 5 bytes
+- plain records: 3 bytes each, big-endian (pageNum << 1 | dirty), so only for page numbers below 2^23
+- delta records: varint (7 bits per byte, low bits first) of (zigzag(pageNum - previous pageNum) << 1 | dirty), 1 to 8 bytes each
+*/
+class BinaryTraceReader implements TraceReader {
+	public static final int MAGIC = 0x564D5342;	//"VMSB"
+	public static final int VERSION = 1;
+	public static final int FLAG_DELTA = 1;
+	public static final int FLAG_PID = 2;
+	public static final int HEADER_SIZE = 16;
+	public static final int MAX_RECORD = 8;		//a page number is at most 52 bits (64-bit addresses, 4KB pages), its delta record 54
+	public static final int MAX_PID = 5;
+	public static final int PLAIN_PAGES = 1 << 23;		//page numbers a plain record can hold
+	private static final long WINDOW = 1L << 30;	//map at most 1GB of the file at a time
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private long fileSize;
+	private long windowStart;	//file offset of the first byte in buf
+	private MappedByteBuffer buf;
+	private int limit;		//records starting before limit are entirely inside the window
+	private int pos;
+	private BinaryTraceRecords records;
+	private long read;
 	
-	public optAlgo(String file, int frames) {
-		this.filename = file;
-		this.numFrames = frames;
-		this.totalMemAcc = 0;
-		this.totalPgFaults = 0;
-		this.totalWritesToDisk = 0;
-		this.frameTable = new int[numFrames];
-		this.table = new PageTable();
-		for(int i=0; i<numFrames; i++) {
-			this.frameTable[i]=-1;
+	public BinaryTraceReader(String filename, int pageShift) throws IOException {
+		this.file = new RandomAccessFile(filename, "r");
+		this.channel = file.getChannel();
+		this.fileSize = channel.size();
+		byte[] header = new byte[HEADER_SIZE];
+		if(fileSize >= HEADER_SIZE) file.readFully(header);
+		try {
+			this.records = new BinaryTraceRecords(ByteBuffer.wrap(header), 0, (int)Math.min(fileSize, HEADER_SIZE), filename, pageShift);
+		} catch(IOException e) {
+			close();
+			throw e;
+		}
+		this.read = 0;
+		this.windowStart = HEADER_SIZE;
+		map();
+	}
+	public static boolean isBinary(String filename) throws IOException {
+		RandomAccessFile f = new RandomAccessFile(filename, "r");
+		try {
+			return f.length() >= HEADER_SIZE && f.readInt() == MAGIC;
+		} finally {
+			f.close();
+		}
+	}
+	public boolean next() throws IOException {
+		if(read == records.count) return false;
+		if(pos >= limit) {
+			windowStart += pos;
+			if(windowStart >= fileSize) throw new IOException("Binary tracefile ends after "+read+" of "+records.count+" references");
+			map();
+		}
+		pos = records.decode(buf, pos, buf.limit());
+		read++;
+		return true;
+	}
+	public long pageNum() {
+		return records.pageNum;
+	}
+	public int dirty() {
+		return records.dirty;
+	}
+	public int pid() {
+		return records.pid;
+	}
+	public long sizeHint() {
+		return records.count;
+	}
+	public void close() throws IOException {
+		channel.close();
+		file.close();
+	}
+	public long[] position() {
+		return new long[] { windowStart + pos, read, records.filePage };		//the deltas go on from filePage
+	}
+	public void seek(long[] position) throws IOException {
+		windowStart = position[0];
+		read = position[1];
+		records.filePage = position[2];
+		map();
+	}
+	private void map() throws IOException {
+		long size = Math.min(WINDOW, fileSize - windowStart);
+		buf = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, size);
+		pos = 0;
+		if(windowStart + size == fileSize) limit = (int)size;		//last window
+		else limit = (int)size - (records.maxRecord() - 1);
+	}
+}
+
+class BinaryTraceRecords {
+	//the header and records of a binary trace, decoded the same way by BinaryTraceReader and StreamTraceReader
+	private boolean delta;
+	private boolean pids;
+	private int shift;		//from the page size in the file to the one asked for
+	private int at;		//in the record being decoded
+	public long count;		//references in the file, from the header
+	public long filePage;		//page number as written, what the deltas apply to
+	public long pageNum;		//of the last record decoded
+	public int dirty, pid;
+	
+	public BinaryTraceRecords(ByteBuffer header, int from, int to, String name, int pageShift) throws IOException {
+		if(to - from < BinaryTraceReader.HEADER_SIZE || header.getInt(from) != BinaryTraceReader.MAGIC) {
+			throw new IOException(name+" is not a binary tracefile");
+		}
+		int version = header.get(from+4) & 0xff;
+		if(version != BinaryTraceReader.VERSION) throw new IOException("Unsupported binary tracefile version "+version);
+		int flags = header.get(from+5) & 0xff;
+		this.delta = (flags & BinaryTraceReader.FLAG_DELTA) != 0;
+		this.pids = (flags & BinaryTraceReader.FLAG_PID) != 0;
+		int fileShift = header.get(from+6) & 0xff;
+		if(fileShift == 0) fileShift = TraceReader.DEFAULT_PAGE_SHIFT;
+		if(pageShift < fileShift) throw new IOException(name+" was converted with "+(1L << fileShift)+" byte pages, it cannot be read with smaller ones");
+		this.shift = pageShift - fileShift;
+		this.count = header.getLong(from+8);		//after a reserved byte
+		this.filePage = 0;
+	}
+	public int maxRecord() {		//bytes in the longest record
+		return BinaryTraceReader.MAX_RECORD + (pids ? BinaryTraceReader.MAX_PID : 0);
+	}
+	public int decode(ByteBuffer buf, int from, int to) throws IOException {
+		//the record starting at from, returns where the next one starts. It must end before to
+		at = from;
+		if(pids) pid = (int)readVarint(buf, to);
+		long rec;
+		if(delta) {
+			rec = readVarint(buf, to);
+			long zz = rec >>> 1;
+			filePage += (zz >>> 1) ^ -(zz & 1);		//undo the zigzag encoding of the delta
+		}
+		else {
+			if(to - at < 3) throw new IOException("Binary tracefile ends in the middle of a record");
+			rec = ((buf.get(at) & 0xff) << 16) | ((buf.get(at+1) & 0xff) << 8) | (buf.get(at+2) & 0xff);
+			at += 3;
+			filePage = rec >>> 1;
 		}
-		rand = new Random();
-		hashtable = new Hashtable<Integer, LinkedList<Integer>>(1048576);
-		for(int i=0;i<1048576;i++) {
-			LinkedList<Integer> list = new LinkedList<Integer>();
-			hashtable.put(i, list);
+		pageNum = filePage >>> shift;
+		dirty = (int)(rec & 1);
+		return at;
+	}
+	private long readVarint(ByteBuffer buf, int to) throws IOException {
+		int shift = 0;
+		int b;
+		long value = 0;
+		do {
+			if(at >= to) throw new IOException("Binary tracefile ends in the middle of a record");
+			b = buf.get(at++);
+			value |= (long)(b & 0x7f) << shift;
+			shift += 7;
+		} while((b & 0x80) != 0);
+		return value;
+	}
+}
+
+class StreamTraceReader implements TraceReader, Runnable {
+	//a trace that can only be read front to back: stdin ("-"), a named pipe, or a gzip-compressed file (gzip is
+	//recognized by its magic number, so "cat trace.gz | vmsim ... -" works too, and so does a binary trace inside).
+	//A decode thread reads, decompresses and parses the stream into batches of primitives, and the simulation takes
+	//them from a queue, so it starts with the first batch and decompression overlaps with it. When the input stalls,
+	//as it does with a trace being written live, the batch decoded so far is handed over without waiting to fill it.
+	public static final int BATCH = 1 << 14;		//references per batch
+	private static final int DEPTH = 4;		//batches in flight between the two threads
+	private static final int END = -1;		//posted after the last batch
+	private String name;
+	private int pageShift;
+	private InputStream source;		//what was opened, closed by close()
+	private InputStream in;		//what the decoder reads, source decompressed if it is gzip
+	private long hint;
+	private Thread decoder;
+	private ArrayBlockingQueue<Integer> full;		//batch slots decoded and waiting to be read, in order
+	private ArrayBlockingQueue<Integer> free;		//batch slots the decoder may fill
+	private long[][] pages;
+	private byte[][] dirties;
+	private int[][] pids;
+	private int[] counts;
+	private volatile Throwable error;		//what stopped the decoder, thrown by next() once the batches before it are read
+	private int slot;		//batch being read, -1 before the first
+	private int index;
+	private boolean done;
+	private long pageNum;
+	private int dirty, pid;
+	//decoder side
+	private byte[] buf;
+	private ByteBuffer view;		//of buf, for the parsers shared with the other readers
+	private int bufPos, bufLen;
+	private long offset;		//bytes of the (decompressed) stream consumed before buf
+	private boolean eof;		//nothing more after bufLen
+	private int fill;		//batch being filled
+	private int filled;
+	
+	public StreamTraceReader(String filename, int pageShift) throws IOException {
+		this.name = filename;
+		this.pageShift = pageShift;
+		if(filename.equals("-")) {
+			this.source = System.in;
+			this.hint = 1 << 20;
+		}
+		else {
+			this.source = new FileInputStream(filename);
+			File f = new File(filename);
+			this.hint = f.isFile() ? f.length()/2 + 16 : 1 << 20;		//a compressed text trace is about 2 bytes per line
+		}
+		this.full = new ArrayBlockingQueue<Integer>(DEPTH+1);
+		this.free = new ArrayBlockingQueue<Integer>(DEPTH);
+		this.pages = new long[DEPTH][BATCH];
+		this.dirties = new byte[DEPTH][BATCH];
+		this.pids = new int[DEPTH][BATCH];
+		this.counts = new int[DEPTH];
+		for(int i=0; i<DEPTH; i++) free.add(i);
+		this.slot = -1;
+		this.decoder = new Thread(this, "trace decoder");
+		this.decoder.setDaemon(true);		//never keeps the JVM alive if the simulation stops early
+		this.decoder.start();
+	}
+	public boolean next() throws IOException {
+		if(done) return false;
+		while(slot < 0 || index == counts[slot]) {
+			if(slot >= 0) free.add(slot);
+			try {
+				slot = full.take();
+			} catch(InterruptedException e) {
+				throw new IOException("Interrupted while reading "+name);
+			}
+			index = 0;
+			if(slot == END) {
+				done = true;
+				if(error instanceof IOException) throw (IOException)error;
+				if(error != null) throw new IOException("Decoding "+name+" failed", error);
+				return false;
+			}
+		}
+		pageNum = pages[slot][index];
+		dirty = dirties[slot][index];
+		pid = pids[slot][index];
+		index++;
+		return true;
+	}
+	public long pageNum() {
+		return this.pageNum;
+	}
+	public int dirty() {
+		return this.dirty;
+	}
+	public int pid() {
+		return this.pid;
+	}
+	public long sizeHint() {
+		return hint;
+	}
+	public void close() throws IOException {
+		decoder.interrupt();
+		if(source != System.in) source.close();
+	}
+	
+	public void run() {
+		//whatever stops the decoder, the references decoded up to there and then END are posted, so next() never waits
+		//on a decoder that is gone. Only close() interrupting it leaves nobody to post them to.
+		boolean closed = false;
+		try {
+			BufferedInputStream raw = new BufferedInputStream(source, 1 << 16);
+			InputStream stream = raw;
+			raw.mark(2);
+			if(raw.read() == 0x1f && raw.read() == 0x8b) {
+				raw.reset();
+				stream = new GZIPInputStream(raw, 1 << 16);
+			}
+			else {
+				raw.reset();
+			}
+			this.in = stream;
+			this.buf = new byte[1 << 16];
+			this.view = ByteBuffer.wrap(buf);
+			this.fill = free.take();
+			this.filled = 0;
+			if(peekInt() == BinaryTraceReader.MAGIC) decodeBinary();
+			else decodeText();
+		} catch(InterruptedException e) {
+			closed = true;
+		} catch(Throwable e) {
+			error = e;
+		} finally {
+			if(!closed) {
+				if(filled > 0) {		//the batch being filled, without taking another slot
+					counts[fill] = filled;
+					full.add(fill);
+				}
+				full.add(END);		//there is always room: DEPTH slots plus this
+			}
+		}
+	}
+	private void decodeText() throws IOException, InterruptedException {
+		TextTraceLine line = new TextTraceLine(name, pageShift);
+		while(true) {
+			boolean found = line.parse(view, bufPos, bufLen, offset);
+			if(line.end == bufLen && !eof) {		//the line may go on past what has been read, parse it again with more
+				fill();
+				continue;
+			}
+			if(found) add(line.pid, line.pageNum, line.dirty);		//blank lines are skipped
+			if(line.end == bufLen) return;
+			bufPos = line.end + 1;
+		}
+	}
+	private void decodeBinary() throws IOException, InterruptedException {
+		//the format BinaryTraceReader reads, see the comment above it
+		while(bufLen - bufPos < BinaryTraceReader.HEADER_SIZE && fill()) {}
+		BinaryTraceRecords records = new BinaryTraceRecords(view, bufPos, bufLen, name, pageShift);
+		bufPos += BinaryTraceReader.HEADER_SIZE;
+		int max = records.maxRecord();
+		for(long r=0; r<records.count; r++) {
+			while(bufLen - bufPos < max && fill()) {}
+			if(bufPos == bufLen) throw new IOException("Binary tracefile ends after "+r+" of "+records.count+" references");
+			bufPos = records.decode(view, bufPos, bufLen);
+			add(records.pid, records.pageNum, records.dirty);
+		}
+	}
+	private void add(int process, long page, int d) throws InterruptedException {
+		pages[fill][filled] = page;
+		dirties[fill][filled] = (byte)d;
+		pids[fill][filled] = process;
+		if(++filled == BATCH) post();
+	}
+	private void post() throws InterruptedException {
+		counts[fill] = filled;
+		full.add(fill);
+		fill = free.take();
+		filled = 0;
+	}
+	private boolean fill() throws IOException, InterruptedException {
+		//reads more of the stream into buf after what is left from bufPos, false at its end
+		if(eof) return false;
+		if(filled > 0 && in.available() == 0) post();		//the input is stalling, let the simulation have what there is
+		if(bufPos > 0) {
+			System.arraycopy(buf, bufPos, buf, 0, bufLen - bufPos);
+			offset += bufPos;
+			bufLen -= bufPos;
+			bufPos = 0;
+		}
+		if(bufLen == buf.length) {		//a line longer than buf
+			buf = Arrays.copyOf(buf, buf.length * 2);
+			view = ByteBuffer.wrap(buf);
+		}
+		int n = in.read(buf, bufLen, buf.length - bufLen);
+		if(n < 0) {
+			eof = true;
+			return false;
+		}
+		bufLen += n;
+		return true;
+	}
+	private int peekInt() throws IOException, InterruptedException {		//the first 4 bytes without consuming them, -1 if there are fewer
+		while(bufLen < 4 && fill()) {}
+		if(bufLen < 4) return -1;
+		return view.getInt(0);
+	}
+}
+
+interface TraceSource {
+	public TraceReader open() throws IOException;		//a new reader positioned at the first reference
+	public default String identity() throws IOException {		//what a checkpoint records of the trace, "" if there is nothing to check
+		return "";
+	}
+}
+
+class FileTraceSource implements TraceSource {
+	private String filename;
+	private int pageShift;
+	private boolean opened;
+	
+	public FileTraceSource(String filename) {
+		this(filename, TraceReader.DEFAULT_PAGE_SHIFT);
+	}
+	public FileTraceSource(String filename, int pageShift) {
+		this.filename = filename;
+		this.pageShift = pageShift;
+	}
+	public TraceReader open() throws IOException {
+		if(opened && TraceReader.isPipe(filename)) {
+			throw new IOException(filename+" can only be read once, load it into a MemoryTrace to read it again");
+		}
+		opened = true;
+		return TraceReader.open(filename, pageShift);
+	}
+	public String identity() throws IOException {
+		//the path, length and a CRC of the first 64KB, so resuming over another or a changed tracefile is refused rather
+		//than seeking to an offset that means nothing in it. A pipe is not there to look at again.
+		if(TraceReader.isPipe(filename)) return "";
+		File f = new File(filename);
+		byte[] header = new byte[1 << 16];
+		int n = 0;
+		try(FileInputStream in = new FileInputStream(f)) {
+			for(int r; n < header.length && (r = in.read(header, n, header.length - n)) > 0; ) n += r;
+		}
+		CRC32 crc = new CRC32();
+		crc.update(header, 0, n);
+		return f.getAbsolutePath()+" ("+f.length()+" bytes, crc "+Long.toHexString(crc.getValue())+")";
+	}
+}
+
+class ProcessTraces {
+	//every process's references as a MemoryTrace of its own, for local replacement where each policy only sees its
+	//process. Nothing is read until one of them is first opened (only OPT reads its trace), then one pass splits them all.
+	private TraceSource trace;
+	private IntIndex pids;
+	private MemoryTrace[] traces;		//by index in pids, null until the split
+	
+	public ProcessTraces(TraceSource trace) {
+		this.trace = trace;
+	}
+	public TraceSource of(final int pid) {
+		return () -> get(pid).open();
+	}
+	private synchronized MemoryTrace get(int pid) throws IOException {
+		if(traces == null) split();
+		int p = pids.indexOf(pid);
+		return p < traces.length ? traces[p] : new MemoryTrace(0);
+	}
+	private void split() throws IOException {
+		pids = new IntIndex();
+		MemoryTrace[] split = new MemoryTrace[16];
+		TraceReader reader = trace.open();
+		while(reader.next()) {
+			int p = pids.indexOf(reader.pid());
+			if(p == split.length) split = Arrays.copyOf(split, p*2);
+			if(split[p] == null) split[p] = new MemoryTrace(16);
+			split[p].add(0, reader.pageNum(), reader.dirty());
+		}
+		reader.close();
+		traces = Arrays.copyOf(split, pids.size());
+	}
+}
+
+class MemoryTrace implements TraceSource {
+	private int[] refs;		//low 31 bits of pageNum << 1 | dirty for every reference
+	private int[] high;		//the rest of every pageNum, null while they all fit in 31 bits
+	private int[] pids;		//process id of every reference, null if they are all 0
+	private int count;
+	private int[] nextUse;		//built on first use by OPT, then shared by every OPT run over this trace
+	
+	public MemoryTrace(int capacity) {		//empty, filled in with add()
+		this.refs = new int[capacity];
+		this.count = 0;
+	}
+	public MemoryTrace(int[] refs, int count) {		//refs holds pageNum << 1 | dirty per reference
+		this.refs = refs;
+		this.count = count;
+	}
+	public static MemoryTrace load(TraceSource source) throws IOException {
+		TraceReader reader = source.open();
+		MemoryTrace trace = new MemoryTrace((int)Math.min(Integer.MAX_VALUE-8, reader.sizeHint()));
+		while(reader.next()) {
+			trace.add(reader.pid(), reader.pageNum(), reader.dirty());
+		}
+		reader.close();
+		return trace;
+	}
+	public void add(int pid, long pageNum, int dirty) throws IOException {
+		if(count == refs.length) {
+			if(count == Integer.MAX_VALUE-8) throw new IOException("Trace has too many references to hold in memory");
+			refs = Arrays.copyOf(refs, (int)Math.min(Integer.MAX_VALUE-8, (long)refs.length*3/2+16));
+			if(high != null) high = Arrays.copyOf(high, refs.length);
+			if(pids != null) pids = Arrays.copyOf(pids, refs.length);
+		}
+		//the extra arrays are only allocated once a reference needs them
+		if(high == null && (pageNum >>> 31) != 0) high = new int[refs.length];
+		if(high != null) high[count] = (int)(pageNum >>> 31);
+		if(pids == null && pid != 0) pids = new int[refs.length];
+		if(pids != null) pids[count] = pid;
+		refs[count++] = ((int)pageNum << 1) | dirty;
+	}
+	public TraceReader open() {
+		return new ArrayTraceReader(refs, high, pids, count);
+	}
+	public int size() {
+		return count;
+	}
+	public synchronized int[] nextUse() throws IOException {
+		if(nextUse == null) nextUse = optAlgo.buildNextUse(this);
+		return nextUse;
+	}
+}
+
+class ArrayTraceReader implements TraceReader {
+	private int[] refs;
+	private int[] high;
+	private int[] pids;
+	private int count;
+	private int pos;
+	private int ref;
+	
+	public ArrayTraceReader(int[] refs, int[] high, int[] pids, int count) {
+		this.refs = refs;
+		this.high = high;
+		this.pids = pids;
+		this.count = count;
+		this.pos = 0;
+	}
+	public boolean next() {
+		if(pos == count) return false;
+		ref = refs[pos++];
+		return true;
+	}
+	public long pageNum() {
+		long pageNum = ref >>> 1;
+		return high == null ? pageNum : pageNum | ((long)high[pos-1] << 31);
+	}
+	public int dirty() {
+		return ref & 1;
+	}
+	public int pid() {
+		return pids == null ? 0 : pids[pos-1];
+	}
+	public long sizeHint() {
+		return count;
+	}
+	public void close() {
+	}
+	public long[] position() {
+		return new long[] { pos };
+	}
+	public void seek(long[] position) {
+		pos = (int)position[0];
+	}
+}
+
+class BinaryTraceWriter {
+	private RandomAccessFile file;
+	private byte[] buf;
+	private int pos;
+	private boolean delta;
+	private boolean pids;
+	private long count;
+	private long lastPage;
+	
+	public BinaryTraceWriter(String filename, boolean delta, boolean pids) throws IOException {
+		this(filename, delta, pids, TraceReader.DEFAULT_PAGE_SHIFT);
+	}
+	public BinaryTraceWriter(String filename, boolean delta, boolean pids, int pageShift) throws IOException {
+		this.file = new RandomAccessFile(filename, "rw");
+		this.file.setLength(0);
+		this.buf = new byte[1 << 16];
+		this.pos = 0;
+		this.delta = delta;
+		this.pids = pids;
+		this.count = 0;
+		this.lastPage = 0;
+		file.writeInt(BinaryTraceReader.MAGIC);
+		file.writeByte(BinaryTraceReader.VERSION);
+		file.writeByte((delta ? BinaryTraceReader.FLAG_DELTA : 0) | (pids ? BinaryTraceReader.FLAG_PID : 0));
+		file.writeByte(pageShift);
+		file.writeByte(0);
+		file.writeLong(0);		//number of references, filled in by close()
+	}
+	public void write(int pid, long pageNum, int dirty) throws IOException {
+		if(pos > buf.length - BinaryTraceReader.MAX_RECORD - BinaryTraceReader.MAX_PID) flush();
+		if(pids) writeVarint(pid & 0xFFFFFFFFL);
+		else if(pid != 0) throw new IOException("Reference from process "+pid+" in a binary tracefile without process ids");
+		if(delta) {
+			long d = pageNum - lastPage;
+			lastPage = pageNum;
+			writeVarint((((d << 1) ^ (d >> 63)) << 1) | dirty);		//zigzag so small negative deltas stay small
+		}
+		else {
+			if(pageNum >= BinaryTraceReader.PLAIN_PAGES) throw new IOException("Page number "+pageNum+" is too wide for plain records, convert with -d");
+			int rec = ((int)pageNum << 1) | dirty;
+			buf[pos++] = (byte)(rec >>> 16);
+			buf[pos++] = (byte)(rec >>> 8);
+			buf[pos++] = (byte)rec;
+		}
+		count++;
+	}
+	public long getCount() {
+		return count;
+	}
+	private void writeVarint(long value) {
+		while((value & ~0x7f) != 0) {
+			buf[pos++] = (byte)((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		buf[pos++] = (byte)value;
+	}
+	public void close() throws IOException {
+		flush();
+		file.seek(8);
+		file.writeLong(count);
+		file.close();
+	}
+	private void flush() throws IOException {
+		file.write(buf, 0, pos);
+		pos = 0;
+	}
+}
+
+interface EventSink {
+	public static final int HIT = 0;
+	public static final int NO_EVICTION = 1;
+	public static final int EVICT_CLEAN = 2;
+	public static final int EVICT_DIRTY = 3;
+	
+	public void event(int type);		//one of the four constants above, once per memory reference
+	public void flush() throws IOException;
+	public void close() throws IOException;
+	
+	public static EventSink create(String mode, String tracefile) throws IOException {
+		if(mode.equals("summary")) return new SummarySink();
+		if(mode.equals("text")) return new TextSink();
+		if(mode.equals("binary")) return new BinarySink((tracefile.equals("-") ? "stdin" : tracefile)+".events");
+		if(mode.startsWith("binary:") && mode.length() > 7) return new BinarySink(mode.substring(7));
+		return null;
+	}
+}
+
+class SummarySink implements EventSink {
+	public void event(int type) {
+	}
+	public void flush() {
+	}
+	public void close() {
+	}
+}
+
+class TextSink implements EventSink {
+	private static final byte[][] LINES = {
+		("Hit"+System.lineSeparator()).getBytes(),
+		("Page Fault - No Eviction"+System.lineSeparator()).getBytes(),
+		("Page Fault - Evict Clean"+System.lineSeparator()).getBytes(),
+		("Page Fault - Evict Dirty"+System.lineSeparator()).getBytes()
+	};
+	private byte[] buf;
+	private int pos;
+	
+	public TextSink() {
+		this.buf = new byte[1 << 16];
+		this.pos = 0;
+	}
+	public void event(int type) {
+		byte[] line = LINES[type];
+		if(pos + line.length > buf.length) flush();
+		System.arraycopy(line, 0, buf, pos, line.length);
+		pos += line.length;
+	}
+	public void flush() {
+		System.out.write(buf, 0, pos);		//one write per 64KB instead of one synchronized println per reference
+		System.out.flush();
+		pos = 0;
+	}
+	public void close() {
+		flush();
+	}
+}
+
+/*
+Binary event log format:
+- 16 byte header: magic "VMSE", version (1), 3 reserved bytes, number of events (8 bytes, big-endian)
+- events packed 4 to a byte, 2 bits each (the EventSink constants), first event in the low bits
+*/
+class BinarySink implements EventSink {
+	public static final int MAGIC = 0x564D5345;	//"VMSE"
+	private RandomAccessFile file;
+	private byte[] buf;
+	private int pos;
+	private int cur;		//events packed so far into the current byte
+	private long count;
+	
+	public BinarySink(String filename) throws IOException {
+		this.file = new RandomAccessFile(filename, "rw");
+		this.file.setLength(0);
+		this.buf = new byte[1 << 16];
+		this.pos = 0;
+		this.cur = 0;
+		this.count = 0;
+		file.writeInt(MAGIC);
+		file.writeByte(1);
+		file.writeByte(0);
+		file.writeShort(0);
+		file.writeLong(0);		//number of events, filled in by close()
+	}
+	public void event(int type) {
+		int shift = (int)(count & 3) << 1;
+		cur |= type << shift;
+		count++;
+		if((count & 3) == 0) {
+			if(pos == buf.length) flushBuffer();
+			buf[pos++] = (byte)cur;
+			cur = 0;
+		}
+	}
+	public void flush() {
+		//the log is only complete once closed, nothing is interleaved with the printed totals
+	}
+	public void close() throws IOException {
+		if((count & 3) != 0) {
+			if(pos == buf.length) flushBuffer();
+			buf[pos++] = (byte)cur;
+		}
+		flushBuffer();
+		file.seek(8);
+		file.writeLong(count);
+		file.close();
+	}
+	private void flushBuffer() {
+		try {
+			file.write(buf, 0, pos);
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		pos = 0;
+	}
+}
+
+class ResidentIndex {
+	private int[] frameOf;		//frameOf[pageNum] is the frameTable index holding that page, -1 if not resident
+	
+	public ResidentIndex() {
+		this(1048576);	//2^20, one slot per page number
+	}
+	public ResidentIndex(int numPages) {
+		this.frameOf = new int[numPages];
+		Arrays.fill(this.frameOf, -1);
+	}
+	public void grow(int numPages) {
+		int old = this.frameOf.length;
+		this.frameOf = Arrays.copyOf(this.frameOf, numPages);
+		Arrays.fill(this.frameOf, old, numPages, -1);
+	}
+	public boolean contains(int pageNum) {
+		return this.frameOf[pageNum] >= 0;
+	}
+	public int getFrame(int pageNum) {
+		return this.frameOf[pageNum];
+	}
+	public void load(int pageNum, int frame) {		//call whenever a page is placed in the frameTable
+		this.frameOf[pageNum] = frame;
+	}
+	public void evict(int pageNum) {		//call whenever a page is taken out of the frameTable
+		this.frameOf[pageNum] = -1;
+	}
+}
+
+interface ReplacementPolicy {
+	public String getName();		//printed as "Algorithm:" in the summary
+	public default void init(Simulator sim) throws IOException {		//called once before the first reference
+	}
+	public void onHit(int frame, int pageNum);		//pageNum was already in frame
+	public void onLoad(int frame, int pageNum);		//pageNum was just placed in frame, either a free one or the victim
+	public int selectVictim(int pageNum, int keep);		//frameTable is full, pick the frame to evict so pageNum can be loaded, never keep (-1 for none) and without touching its state
+	public default void onPrefetch(int frame, int pageNum) {		//the prefetcher placed pageNum in frame, unreferenced so its R bit is clear
+		onLoad(frame, pageNum);
+	}
+	public default void onTick() {		//after every memory reference
+	}
+	public default void onClean(int frame, int pageNum) {		//the cleaner wrote pageNum back to disk and cleared its D bit
+	}
+	public default void growPages(int capacity) {		//page ids have reached the old capacity, grow anything indexed by page id
+	}
+	public default void finish() throws IOException {		//after the last reference
+	}
+	public default void save(DataOutputStream out) throws IOException {		//whatever init() and the references so far built up, for a checkpoint
+	}
+	public default void restore(DataInputStream in) throws IOException {		//read back what save() wrote, after init()
+	}
+}
+
+class PolicyConfig {
+	public int numFrames;
+	public int refresh = -1;		//nru refresh interval, in memory references
+	public long bufferBytes = 0;		//opt: 0 for in-memory next uses, otherwise the spill buffer size
+	
+	public PolicyConfig(int numFrames) {
+		this.numFrames = numFrames;
+	}
+}
+
+interface PolicyFactory {
+	public ReplacementPolicy create(PolicyConfig config);		//throws IllegalArgumentException if a needed parameter is missing
+}
+
+class PolicyRegistry {
+	//every -a name and how to build it, adding a policy is one register() call
+	private static final LinkedHashMap<String, PolicyFactory> policies = new LinkedHashMap<String, PolicyFactory>();
+	static {
+		register("opt", config -> new optAlgo(config.bufferBytes));
+		register("clock", config -> new clockAlgo());
+		register("bclock", config -> new bitmapClockAlgo());
+		register("nru", config -> {
+			if(config.refresh < 1) throw new IllegalArgumentException("'-r' not supplied.");
+			return new nruAlgo(config.refresh);
+		});
+		register("fifo", config -> new fifoAlgo());
+		register("sc", config -> new secondChanceAlgo());
+		register("rand", config -> new randAlgo());
+		register("arc", config -> new arcAlgo());
+		register("car", config -> new carAlgo());
+	}
+	
+	public static void register(String name, PolicyFactory factory) {
+		policies.put(name, factory);
+	}
+	public static boolean contains(String name) {
+		return policies.containsKey(name);
+	}
+	public static ReplacementPolicy create(String name, PolicyConfig config) {
+		PolicyFactory factory = policies.get(name);
+		if(factory == null) throw new IllegalArgumentException("invalid algorithm name supplied. The only algorithms available are: "+names());
+		return factory.create(config);
+	}
+	public static String names() {
+		return String.join(", ", policies.keySet());
+	}
+}
+
+class IntIndex {
+	//numbers arbitrary int keys 0, 1, 2... in order of first appearance, open addressing with linear probing
+	private int[] slots;		//index + 1 of the key hashed here, 0 if empty
+	private int[] keys;		//key of each index
+	private int size;
+	
+	public IntIndex() {
+		this.slots = new int[16];
+		this.keys = new int[8];
+		this.size = 0;
+	}
+	public int indexOf(int key) {		//the key's index, a new one if it has not been seen
+		int mask = slots.length - 1;
+		int i = (key * 0x9E3779B9) & mask;
+		while(slots[i] != 0) {
+			if(keys[slots[i]-1] == key) return slots[i]-1;
+			i = (i + 1) & mask;
+		}
+		if(size == keys.length) keys = Arrays.copyOf(keys, size*2);
+		keys[size] = key;
+		slots[i] = ++size;
+		if(size*2 > slots.length) rehash();
+		return size-1;
+	}
+	public int keyAt(int index) {
+		return keys[index];
+	}
+	public int size() {
+		return size;
+	}
+	private void rehash() {
+		slots = new int[slots.length*2];
+		int mask = slots.length - 1;
+		for(int n=0; n<size; n++) {
+			int i = (keys[n] * 0x9E3779B9) & mask;
+			while(slots[i] != 0) i = (i + 1) & mask;
+			slots[i] = n+1;
+		}
+	}
+}
+
+class LongIndex {
+	//IntIndex for long keys
+	private int[] slots;		//index + 1 of the key hashed here, 0 if empty
+	private long[] keys;		//key of each index
+	private int size;
+	
+	public LongIndex() {
+		this.slots = new int[16];
+		this.keys = new long[8];
+		this.size = 0;
+	}
+	public int indexOf(long key) {		//the key's index, a new one if it has not been seen
+		int mask = slots.length - 1;
+		int i = hash(key) & mask;
+		while(slots[i] != 0) {
+			if(keys[slots[i]-1] == key) return slots[i]-1;
+			i = (i + 1) & mask;
+		}
+		if(size == keys.length) keys = Arrays.copyOf(keys, size*2);
+		keys[size] = key;
+		slots[i] = ++size;
+		if(size*2 > slots.length) rehash();
+		return size-1;
+	}
+	public long keyAt(int index) {
+		return keys[index];
+	}
+	public int size() {
+		return size;
+	}
+	private static int hash(long key) {
+		return (int)((key * 0x9E3779B97F4A7C15L) >>> 32);
+	}
+	private void rehash() {
+		slots = new int[slots.length*2];
+		int mask = slots.length - 1;
+		for(int n=0; n<size; n++) {
+			int i = hash(keys[n]) & mask;
+			while(slots[i] != 0) i = (i + 1) & mask;
+			slots[i] = n+1;
+		}
+	}
+}
+
+class PageDirectory {
+	//hands out a page id for every (process, pageNum) in order of first reference, through one open-addressing hash
+	//table over primitive arrays, so memory grows with the pages touched (about 24 bytes each) however wide the
+	//addresses are. The pid becomes a process index through an IntIndex, and consecutive references from the same
+	//process skip even that. With flatFirst the first process instead keeps page id == pageNum below 2^20, so a
+	//single-process 32-bit trace with 4KB pages pays no lookup at all, and every other page's id starts after those 2^20.
+	public static final int FLAT_PAGES = 1048576;	//2^20
+	private IntIndex pids;
+	private boolean flatFirst;
+	private boolean flat;		//the first process has been seen and uses the flat ids
+	private int flatPid;
+	private int base;		//first id handed out through the hash table
+	private int[] slots;		//id - base + 1 of the page hashed here, 0 if empty
+	private long[] pageNumOfPage;		//pageNum of each id from base up
+	private int[] processOfPage;		//process index of each id from base up
+	private int limit;		//one more than the largest id handed out
+	private int lastPid;
+	private int lastProcess;		//-1 until the first reference
+	
+	public PageDirectory(boolean flatFirst) {
+		this.pids = new IntIndex();
+		this.flatFirst = flatFirst;
+		this.flat = false;
+		this.base = 0;
+		this.slots = new int[2048];
+		this.pageNumOfPage = new long[1024];
+		this.processOfPage = new int[1024];
+		this.limit = 0;
+		this.lastProcess = -1;
+	}
+	public int idOf(int pid, long pageNum) {
+		if(flat && pid == flatPid && pageNum < FLAT_PAGES) return (int)pageNum;
+		return lookup(pid, pageNum);
+	}
+	private int lookup(int pid, long pageNum) {
+		if(pid != lastPid || lastProcess < 0) {
+			lastProcess = pids.indexOf(pid);
+			lastPid = pid;
+			if(lastProcess == 0 && flatFirst && !flat) {		//only the first time, later it is just a pid switch
+				flat = true;
+				flatPid = pid;
+				base = FLAT_PAGES;
+				limit = FLAT_PAGES;
+				if(pageNum < FLAT_PAGES) return (int)pageNum;
+			}
+		}
+		int mask = slots.length - 1;
+		int i = hash(lastProcess, pageNum) & mask;
+		while(slots[i] != 0) {
+			int n = slots[i] - 1;
+			if(pageNumOfPage[n] == pageNum && processOfPage[n] == lastProcess) return base + n;
+			i = (i + 1) & mask;
+		}
+		int n = limit - base;
+		if(n == processOfPage.length) {
+			pageNumOfPage = Arrays.copyOf(pageNumOfPage, n*2);
+			processOfPage = Arrays.copyOf(processOfPage, n*2);
+		}
+		pageNumOfPage[n] = pageNum;
+		processOfPage[n] = lastProcess;
+		slots[i] = n + 1;
+		limit++;
+		if((n + 1)*2 > slots.length) rehash();
+		return base + n;
+	}
+	public int limit() {		//arrays indexed by page id need this many entries
+		return limit;
+	}
+	public int processOf(int id) {		//0, 1, 2... in order of each process's first reference, the flat process costs no lookup
+		return id < base ? 0 : processOfPage[id - base];
+	}
+	public long pageNumOf(int id) {
+		return id < base ? id : pageNumOfPage[id - base];
+	}
+	public int processCount() {
+		return pids.size();
+	}
+	public int pidAt(int process) {
+		return pids.keyAt(process);
+	}
+	public void save(DataOutputStream out) throws IOException {		//for a checkpoint, the hash table is rebuilt from the pages
+		out.writeBoolean(flat);
+		out.writeInt(flatPid);
+		out.writeInt(base);
+		out.writeInt(limit);
+		out.writeInt(pids.size());
+		for(int p=0; p<pids.size(); p++) out.writeInt(pids.keyAt(p));
+		Checkpoint.writeLongs(out, pageNumOfPage, limit - base);
+		Checkpoint.writeInts(out, processOfPage, limit - base);
+	}
+	public void restore(DataInputStream in) throws IOException {		//into a new PageDirectory with the same flatFirst
+		flat = in.readBoolean();
+		flatPid = in.readInt();
+		base = in.readInt();
+		limit = in.readInt();
+		pids = new IntIndex();
+		int processes = in.readInt();
+		for(int p=0; p<processes; p++) pids.indexOf(in.readInt());		//hands the pids out again in the same order
+		pageNumOfPage = Checkpoint.readLongs(in, pageNumOfPage.length);
+		processOfPage = Checkpoint.readInts(in, pageNumOfPage.length);
+		int size = 2048;
+		while((limit - base)*2 > size) size *= 2;
+		rehash(size);
+		lastProcess = -1;
+	}
+	private static int hash(int process, long pageNum) {
+		return (int)(((pageNum + ((long)process << 40)) * 0x9E3779B97F4A7C15L) >>> 32);
+	}
+	private void rehash() {
+		rehash(slots.length*2);
+	}
+	private void rehash(int size) {
+		slots = new int[size];
+		int mask = slots.length - 1;
+		for(int n=0; n<limit-base; n++) {
+			int i = hash(processOfPage[n], pageNumOfPage[n]) & mask;
+			while(slots[i] != 0) i = (i + 1) & mask;
+			slots[i] = n+1;
+		}
+	}
+}
+
+class PageWalk {
+	//the radix page table a hardware walker goes through for a vaBits-bit address space. Every level resolves 9 bits
+	//of the pageNum (a 4KB table page of 512 8-byte entries), so 48-bit addresses with 4KB pages take 4 levels, 57-bit
+	//ones 5, and a 2MB page is found one level up. It counts the memory accesses of the walks, and the table pages
+	//each process needs for the pages it touched, one LongIndex of (process, prefix) keys per level.
+	public static final int LEVEL_BITS = 9;
+	private int vaBits;
+	private int pageShift;
+	private int levels;
+	private long indexMask;		//the pageNum bits the table translates
+	private LongIndex[] tables;		//tables[l] holds the level l+1 table pages, level 1 being the one with the PTEs
+	private long walks;
+	
+	public PageWalk(int vaBits, int pageShift) {
+		this.vaBits = vaBits;
+		this.pageShift = pageShift;
+		this.levels = (vaBits - pageShift + LEVEL_BITS - 1) / LEVEL_BITS;
+		this.indexMask = vaBits - pageShift == 64 ? -1L : (1L << (vaBits - pageShift)) - 1;
+		this.tables = new LongIndex[levels];
+		for(int l=0; l<levels; l++) {
+			this.tables[l] = new LongIndex();
+		}
+		this.walks = 0;
+	}
+	public void walk() {		//one translation that went all the way to memory
+		walks++;
+	}
+	public void map(int process, long pageNum) {
+		//first reference to the page, so the tables on its path now exist. Addresses above vaBits have to be the sign
+		//extension of the top bit (x86-64 canonical form), the kernel half of the address space
+		long top = (pageNum << pageShift) >> (vaBits - 1);
+		if(vaBits < 64 && top != 0 && top != -1) {
+			throw new UncheckedIOException(new IOException("Address "+Long.toHexString(pageNum << pageShift)+" does not fit in a "+vaBits+"-bit address space"));
+		}
+		long index = pageNum & indexMask;
+		for(int l=0; l<levels; l++) {
+			//keys are (process << 44 | prefix), the prefix is at most 43 bits, so this tells up to 2^20 processes apart
+			int before = tables[l].size();
+			tables[l].indexOf(((long)process << 44) | (index >>> (LEVEL_BITS*(l+1))));
+			if(tables[l].size() == before) break;		//that table was already there, so are the ones above it
+		}
+	}
+	public int getLevels() {
+		return levels;
+	}
+	public int getVaBits() {
+		return vaBits;
+	}
+	public long getAccesses() {
+		return walks * levels;
+	}
+	public long getTablePages() {
+		long pages = 0;
+		for(LongIndex t : tables) pages += t.size();
+		return pages;
+	}
+}
+
+class Tlb {
+	//set-associative TLB over page ids, entries in flat arrays with a set's ways side by side. A set is picked by the low
+	//bits of the page id, which for the first process is the page number itself. Page ids are unique per process, so
+	//the entries are in effect tagged with an address-space id and nothing is flushed when another process runs: an
+	//entry only goes when replacement picks it, or when its page is evicted and the entry is shot down.
+	public static final int HUGE_PAGE_SHIFT = 21;		//2MB, pages this big or bigger go through the huge-page TLB
+	private int entries;
+	private int ways;
+	private int setMask;
+	private boolean lru;		//else random replacement
+	private int[] tags;		//page id in each entry, -1 if empty
+	private long[] lastUse;		//LRU stamp of each entry
+	private long clock;
+	private Random rand;
+	private long hits, misses, shootdowns;
+	
+	public Tlb(int entries, int ways, boolean lru) {
+		this.entries = entries;
+		this.ways = ways;
+		this.setMask = entries/ways - 1;
+		this.lru = lru;
+		this.tags = new int[entries];
+		Arrays.fill(this.tags, -1);
+		this.lastUse = new long[entries];
+		this.clock = 0;
+		this.rand = new Random();
+	}
+	public static Tlb parse(String spec) {
+		//"<entries>:<ways>[:lru|random]", null unless entries is a power-of-two number of sets of ways
+		String[] parts = spec.split(":");
+		if(parts.length < 2 || parts.length > 3) return null;
+		int entries, ways;
+		try {
+			entries = Integer.parseInt(parts[0]);
+			ways = Integer.parseInt(parts[1]);
+		} catch(NumberFormatException e) {
+			return null;
+		}
+		if(entries < 1 || ways < 1 || entries % ways != 0 || Integer.bitCount(entries/ways) != 1) return null;
+		if(parts.length == 3 && !parts[2].equals("lru") && !parts[2].equals("random")) return null;
+		return new Tlb(entries, ways, parts.length == 2 || parts[2].equals("lru"));
+	}
+	public boolean access(int page) {
+		//true on a hit, on a miss the translation is filled in straight away (after the walk and any page fault)
+		int base = (page & setMask) * ways;
+		for(int i=base; i<base+ways; i++) {
+			if(tags[i] == page) {
+				hits++;
+				lastUse[i] = ++clock;
+				return true;
+			}
+		}
+		misses++;
+		int victim = base;
+		for(int i=base; i<base+ways; i++) {
+			if(tags[i] < 0) {
+				victim = i;
+				break;
+			}
+			if(lastUse[i] < lastUse[victim]) victim = i;
+		}
+		if(!lru && tags[victim] >= 0) victim = base + rand.nextInt(ways);		//set is full
+		tags[victim] = page;
+		lastUse[victim] = ++clock;
+		return false;
+	}
+	public void shootdown(int page) {		//the page was evicted, so its translation has to go
+		int base = (page & setMask) * ways;
+		for(int i=base; i<base+ways; i++) {
+			if(tags[i] == page) {
+				tags[i] = -1;
+				shootdowns++;
+				return;
+			}
+		}
+	}
+	public String describe() {
+		return entries+" entries, "+(ways == entries ? "fully associative" : ways+"-way")+", "+(lru ? "LRU" : "random");
+	}
+	public long getHits() {
+		return hits;
+	}
+	public long getMisses() {
+		return misses;
+	}
+	public long getShootdowns() {
+		return shootdowns;
+	}
+}
+
+class Simulator {
+	//the one simulation loop: reads the trace, keeps the page table, frameTable and counters, and asks the policy which frame to evict.
+	//Every (process, pageNum) is turned into a page id by the PageDirectory first, and the page table, frameTable and
+	//the policies all work on page ids, so their arrays grow with the pages actually touched rather than 2^20 per process.
+	private static final int INITIAL_PAGES = 1 << 8;		//small, since local replacement has one Simulator per process
+	private TraceSource trace;
+	private int numFrames;
+	private long totalMemAcc, totalPgFaults, totalWritesToDisk;		//writes are every page written back, by an eviction or the cleaner
+	private long cleanerWrites;		//the part of totalWritesToDisk the cleaner wrote
+	private long distinctPages;		//pages referenced at least once, so the first fault on each is a cold miss
+	private PageDirectory pages;
+	private int pageCapacity;		//length of every array indexed by page id
+	private long[] procAccesses, procFaults, procWrites;		//per process, indexed like PageDirectory.processOf
+	private int[] frameTable;
+	private PackedPageTable table;
+	private EventSink events;
+	private ResidentIndex resident;
+	private ReplacementPolicy policy;
+	private int frameNum;		//frames in use, they fill up in order before anything is evicted
+	private Metrics metrics;		//null unless -s asked for windowed stats
+	private PageWalk walk;		//null unless -v asked for page walk accounting
+	private Tlb tlb;		//null unless -t or -u asked for a TLB
+	private CostModel cost;		//null unless -c or -k asked for simulated time
+	private Prefetcher prefetcher;		//null unless -f asked for one
+	private byte[] prefetched;		//per frame, 1 while it holds a prefetched page that has not been referenced
+	private long[] prefetchPages;		//what the prefetcher asks for
+	private long prefetchIssued, prefetchUsed, prefetchUnused, prefetchEvictions;
+	private String tlbKind;
+	private String checkpointFile;		//null unless --checkpoint asked for snapshots
+	private long checkpointInterval;
+	private long checkpoints;
+	private String resumeFile;		//null unless --resume gave a snapshot to start from
+	private long resumedAt;
+	private int pageShift = TraceReader.DEFAULT_PAGE_SHIFT;		//what the trace was read with, for checkpoints
+	
+	public Simulator(TraceSource trace, int frames, ReplacementPolicy policy, EventSink events) {
+		this(trace, frames, policy, events, true);
+	}
+	public Simulator(TraceSource trace, int frames, ReplacementPolicy policy, EventSink events, boolean flatFirst) {
+		//flatFirst: the first process keeps the flat 2^20 page ids, right for one big simulation, not for many small ones
+		this.trace = trace;
+		this.numFrames = frames;
+		this.totalMemAcc = 0;
+		this.totalPgFaults = 0;
+		this.totalWritesToDisk = 0;
+		this.distinctPages = 0;
+		this.pages = new PageDirectory(flatFirst);
+		this.pageCapacity = flatFirst ? PageDirectory.FLAT_PAGES : INITIAL_PAGES;
+		this.procAccesses = new long[1];
+		this.procFaults = new long[1];
+		this.procWrites = new long[1];
+		this.frameTable = new int[numFrames];
+		this.table = new PackedPageTable(pageCapacity);
+		this.events = events;
+		this.resident = new ResidentIndex(pageCapacity);
+		for(int i=0; i<numFrames; i++) {
+			this.frameTable[i]=-1;
+		}
+		this.policy = policy;
+		this.frameNum = 0;
+	}
+	public boolean run() {
+		try {
+			simulate();
+			events.flush();
+			System.out.println("Algorithm:	"+policy.getName());
+			System.out.println("Number of frames:	"+numFrames+"");
+			System.out.println("Total memory accesses:  "+totalMemAcc+"");
+			System.out.println("Total page faults:  "+totalPgFaults+"");
+			System.out.println("Total writes to disk:   "+totalWritesToDisk+"");
+			if(prefetcher != null) {
+				System.out.println("Prefetcher:	"+prefetcher.getName());
+				System.out.println("Prefetch issued:	"+prefetchIssued);
+				System.out.println("Prefetch used:	"+prefetchUsed);
+				System.out.println("Prefetched pages evicted unused:	"+prefetchUnused);
+				System.out.println("Prefetch-induced evictions:	"+prefetchEvictions);
+			}
+			if(cost != null) {
+				cost.print();
+			}
+			if(tlb != null) {
+				System.out.println(tlbKind+":	"+tlb.describe());
+				System.out.println("TLB hits:	"+tlb.getHits());
+				System.out.println("TLB misses:	"+tlb.getMisses());
+				System.out.println("TLB shootdowns:	"+tlb.getShootdowns());
+			}
+			if(resumeFile != null) {
+				System.out.println("Resumed at reference:	"+resumedAt);
+			}
+			if(checkpointFile != null) {
+				System.out.println("Checkpoints written:	"+checkpoints);
+			}
+			if(walk != null) {
+				System.out.println("Page table levels:	"+walk.getLevels());
+				System.out.println("Page walk memory accesses:	"+walk.getAccesses());
+				System.out.println("Page table pages:	"+walk.getTablePages()+" ("+(walk.getTablePages()*4)+" KB)");
+			}
+			if(pages.processCount() > 1) {
+				for(int p=0; p<pages.processCount(); p++) {
+					printProcess(pages.pidAt(p), procAccesses[p], procFaults[p], procWrites[p]);
+				}
+			}
+		} catch(IllegalArgumentException e) {
+			System.out.println("Error: "+e.getMessage());
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+		return false;
+	}
+	public static void printProcess(int pid, long accesses, long faults, long writes) {
+		System.out.println("Process "+pid+":	accesses "+accesses+"	page faults "+faults+"	writes to disk "+writes);
+	}
+	public void simulate() throws IOException {
+		DataInputStream snapshot = resumeFile == null ? null : Checkpoint.open(resumeFile);
+		if(snapshot != null) restore(snapshot);		//the page table and frames first, the policy is set up on them
+		begin();
+		if(snapshot != null) policy.restore(snapshot);
+		TraceReader reader = trace.open();
+		if(snapshot != null) {
+			seek(reader, snapshot);
+			snapshot.close();
+		}
+		long nextCheckpoint = checkpointFile == null ? Long.MAX_VALUE : totalMemAcc + checkpointInterval;
+		try {
+			while(reader.next()) {
+				reference(reader.pid(), reader.pageNum(), reader.dirty());
+				if(totalMemAcc == nextCheckpoint) {
+					checkpoint(reader);
+					nextCheckpoint += checkpointInterval;
+				}
+			}
+		} catch(UncheckedIOException e) {
+			throw e.getCause();		//a policy reading its own spill file
+		}
+		reader.close();
+		end();
+	}
+	public void begin() throws IOException {		//before the first reference, when references are fed in by someone else
+		policy.init(this);
+		if(prefetcher != null) prefetcher.init(this);
+	}
+	public void end() throws IOException {		//after the last reference
+		policy.finish();
+		if(prefetcher != null) prefetcher.finish();
+		if(metrics != null) metrics.close();
+	}
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+		metrics.init(this);
+	}
+	public void setPageWalk(PageWalk walk) {
+		this.walk = walk;
+	}
+	public void setPageShift(int pageShift) {
+		this.pageShift = pageShift;
+	}
+	public void setPrefetcher(Prefetcher prefetcher) {
+		this.prefetcher = prefetcher;
+		this.prefetched = new byte[numFrames];
+		this.prefetchPages = new long[Prefetcher.MAX_PAGES];
+	}
+	public void setCostModel(CostModel cost) {
+		this.cost = cost;
+		cost.init(this);
+	}
+	public void setCheckpoint(String filename, long interval) {		//a snapshot every interval references
+		this.checkpointFile = filename;
+		this.checkpointInterval = interval;
+	}
+	public void setResume(String filename) {
+		this.resumeFile = filename;
+	}
+	private void checkpoint(TraceReader reader) throws IOException {
+		//what the optional models (-s, -v, -t/-u, -c/-k, -f) have built up is not in the snapshot, see main
+		DataOutputStream out = Checkpoint.create(checkpointFile);
+		out.writeUTF(policy.getClass().getName());
+		out.writeInt(numFrames);
+		out.writeUTF(trace.identity());
+		out.writeInt(pageShift);
+		out.writeInt(walk == null ? 0 : walk.getVaBits());
+		out.writeLong(totalMemAcc);
+		out.writeLong(totalPgFaults);
+		out.writeLong(totalWritesToDisk);
+		out.writeLong(distinctPages);
+		out.writeInt(frameNum);
+		Checkpoint.writeInts(out, frameTable, numFrames);
+		Checkpoint.writeLongs(out, procAccesses, pages.processCount());
+		Checkpoint.writeLongs(out, procFaults, pages.processCount());
+		Checkpoint.writeLongs(out, procWrites, pages.processCount());
+		pages.save(out);
+		table.save(out, pages.limit());
+		policy.save(out);
+		long[] position = reader.position();
+		out.writeUTF(position == null ? "" : reader.getClass().getName());
+		Checkpoint.writeLongs(out, position == null ? new long[0] : position, position == null ? 0 : position.length);
+		Checkpoint.commit(out, checkpointFile);
+		checkpoints++;
+	}
+	private void restore(DataInputStream in) throws IOException {
+		String policyClass = in.readUTF();
+		int frames = in.readInt();
+		//a snapshot of another run is refused, as a bad parameter, rather than resumed into nonsense
+		if(!policyClass.equals(policy.getClass().getName()) || frames != numFrames) {
+			throw new IllegalArgumentException(resumeFile+" is a checkpoint of "+policyClass+" with "+frames+" frames, not "+policy.getClass().getName()+" with "+numFrames);
+		}
+		String taken = in.readUTF();
+		String current = trace.identity();
+		if(!taken.equals(current)) {
+			throw new IllegalArgumentException(resumeFile+" is a checkpoint of "+(taken.isEmpty() ? "a pipe" : taken)+", not "+(current.isEmpty() ? "a pipe" : current));
+		}
+		int shift = in.readInt();
+		int bits = in.readInt();
+		if(shift != pageShift) {
+			throw new IllegalArgumentException(resumeFile+" is a checkpoint with "+(1L << shift)+" byte pages, not "+(1L << pageShift)+" ('-z')");
+		}
+		if(bits != (walk == null ? 0 : walk.getVaBits())) {
+			throw new IllegalArgumentException(resumeFile+" is a checkpoint "+(bits == 0 ? "without" : "of a "+bits+"-bit")+" address space, not "+(walk == null ? "without" : "of a "+walk.getVaBits()+"-bit")+" ('-v')");
+		}
+		totalMemAcc = in.readLong();
+		totalPgFaults = in.readLong();
+		totalWritesToDisk = in.readLong();
+		distinctPages = in.readLong();
+		frameNum = in.readInt();
+		frameTable = Checkpoint.readInts(in, numFrames);
+		procAccesses = Checkpoint.readLongs(in, 1);
+		procFaults = Checkpoint.readLongs(in, 1);
+		procWrites = Checkpoint.readLongs(in, 1);
+		pages.restore(in);
+		while(pageCapacity < pages.limit()) pageCapacity *= 2;
+		table = new PackedPageTable(pageCapacity);
+		table.restore(in);
+		resident = new ResidentIndex(pageCapacity);
+		for(int f=0; f<frameNum; f++) resident.load(frameTable[f], f);
+		resumedAt = totalMemAcc;
+	}
+	private void seek(TraceReader reader, DataInputStream in) throws IOException {
+		//a reader of the same kind seeks straight to where the snapshot was taken, anything else (a stream, or the
+		//trace held in memory) is read up to it again
+		String kind = in.readUTF();
+		long[] position = Checkpoint.readLongs(in, 0);
+		if(kind.equals(reader.getClass().getName())) {
+			reader.seek(position);
+			return;
+		}
+		for(long i=0; i<totalMemAcc; i++) {
+			if(!reader.next()) throw new IOException("The trace ends before reference "+totalMemAcc+" where the checkpoint was taken");
+		}
+	}
+	public void setTlb(Tlb tlb, boolean huge) {
+		this.tlb = tlb;
+		this.tlbKind = huge ? "Huge-page TLB" : "TLB";
+	}
+	public void reference(int pid, long pageNum, int dirty) {
+		int page = pages.idOf(pid, pageNum);
+		if(page >= pageCapacity) growPages();
+		if(pages.processCount() > procAccesses.length) growProcesses();
+		access(page, dirty);
+	}
+	private void access(int pageNum, int dirty) {
+		//pageNum is a page id from here on
+		int process = pages.processOf(pageNum);
+		procAccesses[process]++;
+		if(!table.contains(pageNum)) {		//not currently in PageTable
+			//initialize and add to table
+			table.addPage(pageNum, 1, 1, dirty, frameNum);	//since not in PageTable, need to add the new page 
+			distinctPages++;
+			if(walk != null) walk.map(process, pages.pageNumOf(pageNum));
+		}
+		else {	//simply change the PTE values - reference, valid, and dirty bits
+			table.setR(pageNum, 1);
+			table.setD(pageNum, dirty);
+			table.setV(pageNum, 1);
+		}
+		if(tlb != null) {
+			if(!tlb.access(pageNum) && walk != null) walk.walk();		//only a TLB miss walks the page table
+		}
+		else if(walk != null) {
+			walk.walk();		//no TLB, so every reference walks
+		}
+		int frame = resident.getFrame(pageNum);
+		if(frame >= 0) {		//current reference is already in frameTable, no page fault!
+			events.event(EventSink.HIT);
+			policy.onHit(frame, pageNum);
+			if(cost != null) cost.hit(frame, dirty);
+			if(prefetcher != null && prefetched[frame] == 1) {		//a prefetch that paid off
+				prefetched[frame] = 0;
+				prefetchUsed++;
+				int pid = pages.pidAt(process);
+				prefetch(pid, prefetcher.onUse(pid, pages.pageNumOf(pageNum), prefetchPages), frame);
+			}
+		}
+		else {		//page fault, need to add to frameTable
+			totalPgFaults++;
+			procFaults[process]++;
+			if(frameNum < numFrames) {	//Space available in frameTable
+				frame = frameNum;
+				frameNum++;
+				events.event(EventSink.NO_EVICTION);
+			}
+			else {	//frameTable is full, this is where the specific page replacement algorithm comes in
+				frame = policy.selectVictim(pageNum, -1);
+				events.event(evict(frame) ? EventSink.EVICT_DIRTY : EventSink.EVICT_CLEAN);
+			}
+			frameTable[frame] = pageNum;
+			resident.load(pageNum, frame);
+			policy.onLoad(frame, pageNum);
+			if(metrics != null) metrics.load(frame, pageNum, totalMemAcc);
+			if(cost != null) cost.load(frame, dirty);
+			if(prefetcher != null) {
+				int pid = pages.pidAt(process);
+				prefetch(pid, prefetcher.onFault(pid, pages.pageNumOf(pageNum), prefetchPages), frame);
+			}
+		}
+		totalMemAcc++;	//each memory reference, regardless of result, is a memory access
+		policy.onTick();
+		if(metrics != null) metrics.tick(pageNum, totalMemAcc);
+		if(cost != null) cost.tick();
+		if(prefetcher != null) prefetcher.onTick();
+	}
+	private void prefetch(int pid, int count, int keep) {
+		//bring in the pages the prefetcher named that are not resident yet, each through the replacement policy like a
+		//fault would, but with the R bit clear since nothing has referenced it, and without a hit/fault event.
+		//keep is the frame of the reference that asked for them, which the policy leaves out when it picks victims, and
+		//with at most numFrames - 1 pages a batch can fit without a FIFO-like policy cycling through its own prefetches
+		count = Math.min(count, numFrames - 1);
+		for(int i=0; i<count; i++) {
+			int page = pages.idOf(pid, prefetchPages[i]);
+			if(page >= pageCapacity) growPages();
+			if(resident.contains(page)) continue;
+			int frame;
+			if(frameNum < numFrames) {
+				frame = frameNum;
+				frameNum++;
+			}
+			else {
+				frame = policy.selectVictim(page, keep);
+				evict(frame);
+				prefetchEvictions++;
+			}
+			if(!table.contains(page)) {
+				table.addPage(page, 1, 0, 0, frame);
+				distinctPages++;
+				if(walk != null) walk.map(pages.processOf(page), prefetchPages[i]);
+			}
+			else {
+				table.setV(page, 1);		//R and D were cleared when it was last evicted
+			}
+			frameTable[frame] = page;
+			resident.load(page, frame);
+			prefetched[frame] = 1;
+			prefetchIssued++;
+			policy.onPrefetch(frame, page);
+			if(metrics != null) metrics.load(frame, page, totalMemAcc);
+			if(cost != null) cost.prefetch(frame);
+		}
+	}
+	private boolean evict(int frame) {		//true if the victim was dirty and had to be written to disk
+		int victim = frameTable[frame];
+		if(metrics != null) metrics.evict(frame, victim, totalMemAcc);
+		table.setV(victim, 0);		//taking it out of frameTable - so it is invalid in pageTable now
+		table.setR(victim, 0);		//this means it is not referenced anymore either
+		if(cost != null) cost.evict(frame, table.getD(victim)==1);
+		boolean dirty = table.getD(victim)==1;
+		if(dirty) {
+			//need to write to disk
+			totalWritesToDisk++;
+			procWrites[pages.processOf(victim)]++;
+			table.setD(victim, 0);
+		}
+		resident.evict(victim);
+		if(tlb != null) tlb.shootdown(victim);
+		if(prefetcher != null && prefetched[frame] == 1) {
+			prefetched[frame] = 0;
+			prefetchUnused++;
+		}
+		return dirty;
+	}
+	private void growPages() {
+		while(pageCapacity < pages.limit()) pageCapacity *= 2;
+		table.grow(pageCapacity);
+		resident.grow(pageCapacity);
+		policy.growPages(pageCapacity);
+		if(metrics != null) metrics.growPages(pageCapacity);
+	}
+	private void growProcesses() {
+		int n = Math.max(pages.processCount(), procAccesses.length*2);
+		procAccesses = Arrays.copyOf(procAccesses, n);
+		procFaults = Arrays.copyOf(procFaults, n);
+		procWrites = Arrays.copyOf(procWrites, n);
+	}
+	public void clean(int frame) {		//the background cleaner wrote the page in frame back, so it is clean again
+		int page = frameTable[frame];
+		table.setD(page, 0);
+		totalWritesToDisk++;
+		cleanerWrites++;
+		procWrites[pages.processOf(page)]++;
+		policy.onClean(frame, page);
+	}
+	public boolean isResident(int pid, long pageNum) {		//the same for a page not yet turned into a page id
+		int page = pages.idOf(pid, pageNum);
+		if(page >= pageCapacity) growPages();
+		return resident.contains(page);
+	}
+	public Prefetcher getPrefetcher() {
+		return prefetcher;
+	}
+	public int getFrame(int pageNum) {		//frameTable index holding pageNum, -1 if it is not resident
+		return resident.getFrame(pageNum);
+	}
+	public TraceSource getTrace() {
+		return trace;
+	}
+	public int getNumFrames() {
+		return numFrames;
+	}
+	public int[] getFrameTable() {
+		return frameTable;
+	}
+	public PackedPageTable getPageTable() {
+		return table;
+	}
+	public String getPolicyName() {
+		return policy.getName();
+	}
+	public long getTotalMemAcc() {
+		return totalMemAcc;
+	}
+	public long getTotalPgFaults() {
+		return totalPgFaults;
+	}
+	public long getTotalWritesToDisk() {
+		return totalWritesToDisk;
+	}
+	public long getEvictionWrites() {		//the writes of dirty victims only
+		return totalWritesToDisk - cleanerWrites;
+	}
+	public long getDistinctPages() {
+		return distinctPages;
+	}
+	public int getPageCapacity() {		//length to give an array indexed by page id, growPages() says when it changes
+		return pageCapacity;
+	}
+	public PageDirectory getPages() {
+		return pages;
+	}
+	public long getTotalEvictions() {
+		return totalPgFaults + prefetchIssued - frameNum;		//every load after the frames filled up evicted something
+	}
+	public long countResidentDirty() {
+		//pages in frameTable whose D bit is set, a pass over the frames so it is only meant for occasional snapshots
+		long count = 0;
+		for(int i=0; i<frameNum; i++) {
+			count += table.getD(frameTable[i]);
+		}
+		return count;
+	}
+}
+
+class LocalSimulator {
+	//local replacement: every process owns quota frames and its own policy instance, and a fault only ever evicts one
+	//of the faulting process's own pages. The processes are then independent, so each is a Simulator of its own,
+	//created on the process's first reference, and the trace is dispatched to them in order.
+	private TraceSource trace;
+	private ProcessTraces processTraces;		//what each Simulator hands its policy as the trace
+	private int quota;
+	private String alg;
+	private PolicyConfig config;
+	private EventSink events;
+	private IntIndex pids;
+	private Simulator[] sims;		//by process index
+	
+	public LocalSimulator(TraceSource trace, int quota, String alg, PolicyConfig config, EventSink events) {
+		this.trace = trace;
+		this.processTraces = new ProcessTraces(trace);
+		this.quota = quota;
+		this.alg = alg;
+		this.config = config;
+		this.events = events;
+		this.pids = new IntIndex();
+		this.sims = new Simulator[1];
+	}
+	public boolean run() {
+		try {
+			simulate();
+			events.flush();
+			long accesses = 0, faults = 0, writes = 0;
+			for(int p=0; p<pids.size(); p++) {
+				accesses += sims[p].getTotalMemAcc();
+				faults += sims[p].getTotalPgFaults();
+				writes += sims[p].getTotalWritesToDisk();
+			}
+			System.out.println("Algorithm:	"+(pids.size() > 0 ? sims[0].getPolicyName() : alg)+" (local)");
+			System.out.println("Number of frames:	"+quota+" per process, "+((long)quota*pids.size())+" in total");
+			System.out.println("Total memory accesses:  "+accesses+"");
+			System.out.println("Total page faults:  "+faults+"");
+			System.out.println("Total writes to disk:   "+writes+"");
+			for(int p=0; p<pids.size(); p++) {
+				Simulator.printProcess(pids.keyAt(p), sims[p].getTotalMemAcc(), sims[p].getTotalPgFaults(), sims[p].getTotalWritesToDisk());
+			}
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+		return false;
+	}
+	public void simulate() throws IOException {
+		TraceReader reader = trace.open();
+		int lastPid = 0;
+		Simulator last = null;
+		try {
+			while(reader.next()) {
+				int pid = reader.pid();
+				if(last == null || pid != lastPid) {
+					int p = pids.indexOf(pid);
+					if(p == sims.length) sims = Arrays.copyOf(sims, p*2);
+					if(sims[p] == null) {
+						PolicyConfig own = new PolicyConfig(quota);
+						own.refresh = config.refresh;
+						own.bufferBytes = config.bufferBytes;
+						sims[p] = new Simulator(processTraces.of(pid), quota, PolicyRegistry.create(alg, own), events, false);
+						sims[p].begin();
+					}
+					last = sims[p];
+					lastPid = pid;
+				}
+				last.reference(pid, reader.pageNum(), reader.dirty());
+			}
+		} catch(UncheckedIOException e) {
+			throw e.getCause();		//a policy reading its own spill file
+		}
+		reader.close();
+		for(int p=0; p<pids.size(); p++) {
+			sims[p].end();
+		}
+	}
+}
+
+class Checkpoint {
+	//snapshots of a Simulator, so a long run can be resumed where it stopped, or one warmed-up state continued several
+	//ways. A snapshot is which trace it was taken over, the counters, frameTable, page directory and page table, the
+	//policy's own state and where the trace reader is, gzip-compressed. It goes to a temporary file that then replaces the last snapshot, so a run killed
+	//while writing one still has the one before.
+	public static final int MAGIC = 0x564D5343;	//"VMSC"
+	public static final int VERSION = 3;		//2 adds the trace identity, 3 the page size and address width
+	public static final long DEFAULT_INTERVAL = 100000000L;		//references between snapshots
+	
+	public static DataOutputStream create(String filename) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(filename+".tmp"), 1 << 16), 1 << 16));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		return out;
+	}
+	public static void commit(DataOutputStream out, String filename) throws IOException {
+		out.close();
+		Files.move(Paths.get(filename+".tmp"), Paths.get(filename), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	public static DataInputStream open(String filename) throws IOException {
+		DataInputStream in;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(filename), 1 << 16), 1 << 16));
+		} catch(ZipException e) {
+			throw new IOException(filename+" is not a checkpoint");
+		}
+		if(in.readInt() != MAGIC) {
+			in.close();
+			throw new IOException(filename+" is not a checkpoint");
+		}
+		int version = in.readInt();
+		if(version != VERSION) {
+			in.close();
+			throw new IOException("Unsupported checkpoint version "+version);
+		}
+		return in;
+	}
+	//arrays are written as their first n entries, and read back into one of at least length entries
+	public static void writeInts(DataOutputStream out, int[] a, int n) throws IOException {
+		out.writeInt(n);
+		for(int i=0; i<n; i++) out.writeInt(a[i]);
+	}
+	public static int[] readInts(DataInputStream in, int length) throws IOException {
+		int n = in.readInt();
+		int[] a = new int[Math.max(length, n)];
+		for(int i=0; i<n; i++) a[i] = in.readInt();
+		return a;
+	}
+	public static void writeLongs(DataOutputStream out, long[] a, int n) throws IOException {
+		out.writeInt(n);
+		for(int i=0; i<n; i++) out.writeLong(a[i]);
+	}
+	public static long[] readLongs(DataInputStream in, int length) throws IOException {
+		int n = in.readInt();
+		long[] a = new long[Math.max(length, n)];
+		for(int i=0; i<n; i++) a[i] = in.readLong();
+		return a;
+	}
+	public static void writeBytes(DataOutputStream out, byte[] a, int n) throws IOException {
+		out.writeInt(n);
+		out.write(a, 0, n);
+	}
+	public static byte[] readBytes(DataInputStream in, int length) throws IOException {
+		int n = in.readInt();
+		byte[] a = new byte[Math.max(length, n)];
+		in.readFully(a, 0, n);
+		return a;
+	}
+	public static void writeRandom(DataOutputStream out, Random rand) throws IOException {
+		//java.util.Random is Serializable, and its serialized form carries the seed, so the resumed run draws the same numbers
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream obj = new ObjectOutputStream(bytes);
+		obj.writeObject(rand);
+		obj.close();
+		writeBytes(out, bytes.toByteArray(), bytes.size());
+	}
+	public static Random readRandom(DataInputStream in) throws IOException {
+		ObjectInputStream obj = new ObjectInputStream(new ByteArrayInputStream(readBytes(in, 0)));
+		try {
+			return (Random)obj.readObject();
+		} catch(ClassNotFoundException e) {
+			throw new IOException("Invalid random number generator in checkpoint");
+		}
+	}
+}
+
+class optAlgo implements ReplacementPolicy {
+	private long bufferBytes;		//0 to keep the next uses in memory, otherwise how much memory the spilled next-use passes may use
+	private OptHeap heap;
+	private NextUseSource nextUse;
+	private long[] nextRef;		//per page id, the next use handed out with its last reference, null unless there is a prefetcher
+	private Simulator sim;
+	
+	public optAlgo(long bufferBytes) {
+		this.bufferBytes = bufferBytes;
+	}
+	public String getName() {
+		return "OPT";
+	}
+	public void init(Simulator sim) throws IOException {
+		this.sim = sim;
+		TraceSource trace = sim.getTrace();
+		heap = new OptHeap(sim.getNumFrames());
+		if(sim.getPrefetcher() != null) {
+			nextRef = new long[sim.getPageCapacity()];
+			Arrays.fill(nextRef, OptHeap.NEVER_LONG);
+		}
+		if(bufferBytes > 0) {
+			nextUse = new SpilledNextUse(trace, bufferBytes);		//traces bigger than the heap, next uses go through disk
+		}
+		else {
+			nextUse = new ArrayNextUse((trace instanceof MemoryTrace) ? ((MemoryTrace)trace).nextUse() : buildNextUse(trace));
+		}
+	}
+	//every reference is exactly one onHit or onLoad, so each consumes the next use of the current reference
+	public void onHit(int frame, int pageNum) {
+		long next = nextUse.next();
+		if(nextRef != null) nextRef[pageNum] = next;
+		heap.update(frame, next);
+	}
+	public void onLoad(int frame, int pageNum) {
+		long next = nextUse.next();
+		if(nextRef != null) nextRef[pageNum] = next;
+		if(heap.contains(frame)) heap.update(frame, next);
+		else heap.insert(frame, next);
+	}
+	public void onPrefetch(int frame, int pageNum) {
+		//no reference of its own, but the next use of the page's last reference is its next one. A page never
+		//referenced yet has no next use to go by, so it counts as never used again
+		if(heap.contains(frame)) heap.update(frame, nextRef[pageNum]);
+		else heap.insert(frame, nextRef[pageNum]);
+	}
+	public void growPages(int capacity) {
+		if(nextRef == null) return;
+		int n = nextRef.length;
+		nextRef = Arrays.copyOf(nextRef, capacity);
+		Arrays.fill(nextRef, n, capacity, OptHeap.NEVER_LONG);
+	}
+	public int selectVictim(int pageNum, int keep) {
+		//the root of the heap is the frame whose page is referenced furthest in the future (or never again)
+		return heap.topExcept(keep);
+	}
+	public void finish() throws IOException {
+		nextUse.close();
+	}
+	public void save(DataOutputStream out) throws IOException {
+		heap.save(out);
+	}
+	public void restore(DataInputStream in) throws IOException {
+		heap.restore(in);
+		nextUse.skip(sim.getTotalMemAcc());		//the next uses are built from the whole trace again, one per reference already made
+	}
+	
+	public static int[] buildNextUse(TraceSource trace) throws IOException {
+		//first loop through tracefile to record the page id of every (process, pageNum), sized from the file so it rarely has to grow
+		TraceReader reader = trace.open();
+		PageDirectory pages = new PageDirectory(false);
+		int[] refs = new int[(int)Math.min(Integer.MAX_VALUE-8, reader.sizeHint())];
+		int count=0;
+		while(reader.next()) {
+			if(count == refs.length) {
+				refs = Arrays.copyOf(refs, (int)Math.min(Integer.MAX_VALUE-8, (long)refs.length*3/2+16));
+			}
+			refs[count++] = pages.idOf(reader.pid(), reader.pageNum());
+		}
+		reader.close();
+		
+		//then one backward pass overwrites each page id with the index of that page's next reference, so the trace costs 4 bytes per reference
+		int[] lastSeen = new int[pages.limit()];
+		Arrays.fill(lastSeen, OptHeap.NEVER);
+		for(int i=count-1; i>=0; i--) {
+			int page = refs[i];
+			refs[i] = lastSeen[page];
+			lastSeen[page] = i;
+		}
+		return refs;
+	}
+}
+
+interface NextUseSource {
+	public long next();		//next use of the current reference, OptHeap.NEVER/NEVER_LONG if there is none
+	public void close() throws IOException;
+	public default void skip(long n) {		//past the first n references, when resuming from a checkpoint
+		for(long i=0; i<n; i++) next();
+	}
+}
+
+class ArrayNextUse implements NextUseSource {
+	private int[] nextUse;
+	private int pos;
+	
+	public ArrayNextUse(int[] nextUse) {
+		this.nextUse = nextUse;
+		this.pos = 0;
+	}
+	public long next() {
+		return nextUse[pos++];
+	}
+	public void close() {
+	}
+	public void skip(long n) {
+		pos += (int)n;
+	}
+}
+
+class SpilledNextUse implements NextUseSource {
+	//Pass 1 streams the trace and spills the page id of every reference to disk. Pass 2 walks that file backwards one chunk at a time,
+	//carrying each page's last seen index from chunk to chunk, and writes the next uses to a second file at the same
+	//positions. Reading that file forwards then gives exactly the in-memory next uses. Memory is bufferBytes for the chunks
+	//plus about 32 bytes per distinct page, 24 in the PageDirectory and 8 for its last seen index.
+	private File spill;
+	private FileChannel channel;
+	private ByteBuffer buf;
+	
+	public SpilledNextUse(TraceSource trace, long bufferBytes) throws IOException {
+		int chunk = (int)Math.max(4096, Math.min((Integer.MAX_VALUE-8)/8, bufferBytes/12));		//4 bytes of pageNum + 8 of next use per reference
+		ByteBuffer pageBuf = ByteBuffer.allocateDirect(chunk*4);
+		ByteBuffer nextBuf = ByteBuffer.allocateDirect(chunk*8);
+		
+		File pages = File.createTempFile("vmsim-pages", ".spill");
+		pages.deleteOnExit();
+		FileChannel pageChannel = new RandomAccessFile(pages, "rw").getChannel();
+		long count = 0;
+		PageDirectory ids = new PageDirectory(false);
+		TraceReader reader = trace.open();
+		while(reader.next()) {
+			pageBuf.putInt(ids.idOf(reader.pid(), reader.pageNum()));
+			count++;
+			if(!pageBuf.hasRemaining()) append(pageChannel, pageBuf);
+		}
+		reader.close();
+		append(pageChannel, pageBuf);
+		
+		this.spill = File.createTempFile("vmsim-nextuse", ".spill");
+		this.spill.deleteOnExit();
+		this.channel = new RandomAccessFile(spill, "rw").getChannel();
+		long[] lastSeen = new long[ids.limit()];
+		Arrays.fill(lastSeen, OptHeap.NEVER_LONG);
+		long chunks = (count + chunk - 1) / chunk;
+		for(long c=chunks-1; c>=0; c--) {
+			long start = c * chunk;
+			int len = (int)Math.min(chunk, count - start);
+			pageBuf.clear().limit(len*4);
+			while(pageBuf.hasRemaining()) {
+				if(pageChannel.read(pageBuf, start*4 + pageBuf.position()) < 0) throw new IOException("Spill file ended early");
+			}
+			nextBuf.clear().limit(len*8);
+			for(int i=len-1; i>=0; i--) {
+				int page = pageBuf.getInt(i*4);
+				nextBuf.putLong(i*8, lastSeen[page]);
+				lastSeen[page] = start + i;
+			}
+			long pos = start*8;
+			while(nextBuf.hasRemaining()) pos += channel.write(nextBuf, pos);
+		}
+		pageChannel.close();
+		pages.delete();
+		
+		this.buf = nextBuf;		//reuse the chunk buffer to stream the next uses back in order
+		this.buf.clear().limit(0);
+		channel.position(0);
+	}
+	public long next() {
+		if(buf.remaining() < 8) {
+			try {
+				buf.compact();		//keep any partial value from the last read
+				while(buf.hasRemaining() && channel.read(buf) >= 0) {
+				}
+				buf.flip();
+				if(buf.remaining() < 8) throw new IOException("Spilled next uses ended early");
+			} catch(IOException e) {
+				throw new UncheckedIOException(e);		//surfaces as an IOException again from Simulator.simulate()
+			}
+		}
+		return buf.getLong();
+	}
+	public void close() throws IOException {
+		channel.close();
+		spill.delete();
+	}
+	private static void append(FileChannel ch, ByteBuffer b) throws IOException {
+		b.flip();
+		while(b.hasRemaining()) ch.write(b);
+		b.clear();
+	}
+}
+
+class OptHeap {
+	public static final int NEVER = Integer.MAX_VALUE;	//next use of a page that is never referenced again, in an in-memory next-use array
+	public static final long NEVER_LONG = Long.MAX_VALUE;	//the same for spilled next uses, which can pass 2^31 references
+	private int[] heap;		//frameTable indexes, heap[0] is the frame referenced furthest in the future
+	private int[] pos;		//pos[frame] is where that frame currently sits in heap
+	private long[] key;		//key[frame] is the trace index of the next reference to the page in that frame
+	private int size;
+	
+	public OptHeap(int frames) {
+		this.heap = new int[frames];
+		this.pos = new int[frames];
+		this.key = new long[frames];
+		this.size = 0;
+	}
+	public int top() {
+		return heap[0];
+	}
+	public int topExcept(int frame) {		//the frame referenced furthest in the future other than this one, with at least 2 in the heap
+		if(heap[0] != frame) return heap[0];
+		if(size == 2 || above(heap[1], heap[2])) return heap[1];
+		return heap[2];
+	}
+	public boolean contains(int frame) {		//frames are inserted in order 0, 1, 2... as the frameTable fills
+		return frame < size;
+	}
+	public void insert(int frame, long nextUse) {
+		key[frame] = nextUse;
+		heap[size] = frame;
+		pos[frame] = size;
+		size++;
+		siftUp(size-1);
+	}
+	public void update(int frame, long nextUse) {		//give a frame a new next use and restore heap order
+		long old = key[frame];
+		key[frame] = nextUse;
+		if(nextUse > old) siftUp(pos[frame]);
+		else siftDown(pos[frame]);
+	}
+	public void save(DataOutputStream out) throws IOException {
+		out.writeInt(size);
+		Checkpoint.writeInts(out, heap, size);
+		Checkpoint.writeInts(out, pos, size);		//frames 0..size-1 are the ones in the heap
+		Checkpoint.writeLongs(out, key, size);
+	}
+	public void restore(DataInputStream in) throws IOException {
+		size = in.readInt();
+		heap = Checkpoint.readInts(in, heap.length);
+		pos = Checkpoint.readInts(in, pos.length);
+		key = Checkpoint.readLongs(in, key.length);
+	}
+	private boolean above(int a, int b) {
+		//ties only happen between pages that are never used again, lowest frame wins like the old linear scan
+		return key[a] > key[b] || (key[a] == key[b] && a < b);
+	}
+	private void siftUp(int i) {
+		int frame = heap[i];
+		while(i > 0) {
+			int parent = (i-1) >> 1;
+			if(!above(frame, heap[parent])) break;
+			heap[i] = heap[parent];
+			pos[heap[i]] = i;
+			i = parent;
+		}
+		heap[i] = frame;
+		pos[frame] = i;
+	}
+	private void siftDown(int i) {
+		int frame = heap[i];
+		while(true) {
+			int child = 2*i+1;
+			if(child >= size) break;
+			if(child+1 < size && above(heap[child+1], heap[child])) child++;
+			if(!above(heap[child], frame)) break;
+			heap[i] = heap[child];
+			pos[heap[i]] = i;
+			i = child;
+		}
+		heap[i] = frame;
+		pos[frame] = i;
+	}
+}
+
+class clockAlgo implements ReplacementPolicy {
+	private int[] frameTable;
+	private PackedPageTable table;
+	private int numFrames;
+	private int pointer;		//the clock hand
+	
+	public String getName() {
+		return "Clock";
+	}
+	public void init(Simulator sim) {
+		this.frameTable = sim.getFrameTable();
+		this.table = sim.getPageTable();
+		this.numFrames = sim.getNumFrames();
+		this.pointer = 0;
+	}
+	public void onHit(int frame, int pageNum) {
+		//the R bit is already set in the page table
+	}
+	public void onLoad(int frame, int pageNum) {
+	}
+	public void save(DataOutputStream out) throws IOException {
+		out.writeInt(pointer);
+	}
+	public void restore(DataInputStream in) throws IOException {
+		pointer = in.readInt();
+	}
+	public int selectVictim(int pageNum, int keep) {
+		while(true) {
+			if(pointer == keep) {		//passed over with its R bit as it is
+				pointer++;
+				if(pointer==numFrames) pointer=0;
+			}
+			else if(table.getR(frameTable[pointer])==1) {	//still referenced in current cycle
+				table.setR(frameTable[pointer], 0);		//reset R bit to 0
+				pointer++;										//increment pointer and move on
+				if(pointer==numFrames) pointer=0;				//reset to 0 if it is currently indicating out of bounds
+			}
+			else {		//found the page to be evicted - ref bit is equal to 0
+				int victim = pointer;
+				pointer++;
+				if(pointer==numFrames) pointer=0;				//reset to 0 if it is currently indicating out of bounds
+				return victim;
+			}
+		}
+	}
+}
+
+class bitmapClockAlgo implements ReplacementPolicy {
+	//Clock with the reference bits of frames packed 64 to a long instead of read through the page table one frame at
+	//a time. The hand finds the next clear bit a word at a time and clears every bit it passed in bulk, which is what
+	//clockAlgo does one frame at a time, so both evict the same frames.
+	private PackedPageTable table;
+	private long[] refBits;		//bit f set if the page in frame f was referenced since the hand last passed it
+	private int numFrames;
+	private int pointer;		//the clock hand
+	
+	public String getName() {
+		return "Clock (bitmap)";
+	}
+	public void init(Simulator sim) {
+		this.table = sim.getPageTable();
+		this.numFrames = sim.getNumFrames();
+		this.refBits = new long[(numFrames + 63) >>> 6];
+		this.pointer = 0;
+	}
+	public void onHit(int frame, int pageNum) {
+		refBits[frame >>> 6] |= 1L << frame;
+	}
+	public void onLoad(int frame, int pageNum) {
+		//the faulting reference counts, as the page table R bit does, while a prefetched page comes in with R clear
+		if(table.getR(pageNum) == 1) refBits[frame >>> 6] |= 1L << frame;
+		else refBits[frame >>> 6] &= ~(1L << frame);
+	}
+	public int selectVictim(int pageNum, int keep) {
+		//keep is passed over as if referenced, and gets its own bit back afterwards
+		long kept = keep < 0 ? 0 : refBits[keep >>> 6] & (1L << keep);
+		if(keep >= 0) refBits[keep >>> 6] |= 1L << keep;
+		int victim = nextClear(pointer, numFrames);
+		if(victim >= 0) {
+			clearRange(pointer, victim);
+		}
+		else {		//wrap around
+			clearRange(pointer, numFrames);
+			victim = nextClear(0, pointer);
+			if(victim >= 0) {
+				clearRange(0, victim);
+			}
+			else {		//every frame was referenced, a full turn clears them all and stops where it started
+				clearRange(0, pointer);
+				victim = pointer;
+				if(victim == keep) victim = victim + 1 == numFrames ? 0 : victim + 1;
+			}
+		}
+		if(keep >= 0) refBits[keep >>> 6] = (refBits[keep >>> 6] & ~(1L << keep)) | kept;
+		pointer = victim + 1;
+		if(pointer == numFrames) pointer = 0;
+		return victim;
+	}
+	public void save(DataOutputStream out) throws IOException {
+		out.writeInt(pointer);
+		Checkpoint.writeLongs(out, refBits, refBits.length);
+	}
+	public void restore(DataInputStream in) throws IOException {
+		pointer = in.readInt();
+		refBits = Checkpoint.readLongs(in, refBits.length);
+	}
+	private int nextClear(int from, int to) {
+		//first frame in [from, to) with a clear R bit, -1 if there is none
+		if(from >= to) return -1;
+		int w = from >>> 6;
+		long free = ~refBits[w] & (-1L << from);		//shift count is taken mod 64, so this masks off the frames below from
+		int last = (to - 1) >>> 6;
+		while(free == 0) {
+			if(++w > last) return -1;
+			free = ~refBits[w];
+		}
+		int frame = (w << 6) + Long.numberOfTrailingZeros(free);
+		return frame < to ? frame : -1;
+	}
+	private void clearRange(int from, int to) {
+		//clear the R bits of frames [from, to)
+		if(from >= to) return;
+		int first = from >>> 6;
+		int last = (to - 1) >>> 6;
+		long firstMask = -1L << from;
+		long lastMask = -1L >>> (63 - ((to - 1) & 63));
+		if(first == last) {
+			refBits[first] &= ~(firstMask & lastMask);
+			return;
+		}
+		refBits[first] &= ~firstMask;
+		for(int w = first + 1; w < last; w++) refBits[w] = 0;
+		refBits[last] &= ~lastMask;
+	}
+}
+
+class nruAlgo implements ReplacementPolicy {
+	private PackedPageTable table;
+	private int[] frameTable;
+	private Random rand;
+	private int refresh;
+	private int rCtr;
+	private NruBuckets classes;		//frames grouped by class (R*2 + D), kept up to date on every reference
+	
+	public nruAlgo(int refresh) {
+		this.rand = new Random();
+		this.refresh = refresh;
+		this.rCtr = 0;
+	}
+	public String getName() {
+		return "NRU";
+	}
+	public void init(Simulator sim) {
+		this.table = sim.getPageTable();
+		this.frameTable = sim.getFrameTable();
+		this.classes = new NruBuckets(sim.getNumFrames());
+	}
+	public void onHit(int frame, int pageNum) {
+		classes.move(frame, classOf(pageNum));		//R and D may have just changed
+	}
+	public void onLoad(int frame, int pageNum) {
+		classes.add(frame, classOf(pageNum));
+	}
+	public void onClean(int frame, int pageNum) {
+		classes.move(frame, classOf(pageNum));		//class 1 to 0 or 3 to 2, a clean page is the cheaper victim
+	}
+	public int selectVictim(int pageNum, int keep) {
+		//begin with class0 til class3. empty means going up to the next class, and there will always be at least one frame in some class
+		//other than keep's, which is left out of the draw
+		int kc = keep < 0 ? -1 : classes.classOf(keep);
+		int c = 0;
+		while(classes.size(c) - (c == kc ? 1 : 0) < 1) c++;
+		if(c != kc) return classes.removeAt(c, rand.nextInt(classes.size(c)));		//random frame from the lowest class, swap-removed in O(1)
+		int i = rand.nextInt(classes.size(c) - 1);
+		return classes.removeAt(c, i < classes.slotOf(keep) ? i : i + 1);
+	}
+	public void onTick() {
+		rCtr++;			//incrementing the refresh counter after each memory reference
+		if(rCtr == refresh) {	//time for refresh
+			//only frames with R set (classes 2 and 3) change: clear R and move them down to class 0 and 1
+			for(int i=0;i<classes.size(2);i++) {
+				table.setR(frameTable[classes.get(2, i)], 0);
+			}
+			for(int i=0;i<classes.size(3);i++) {
+				table.setR(frameTable[classes.get(3, i)], 0);
+			}
+			classes.moveAll(2, 0);
+			classes.moveAll(3, 1);
+			rCtr=0;
+		}
+	}
+	public void save(DataOutputStream out) throws IOException {
+		out.writeInt(rCtr);
+		classes.save(out);
+		Checkpoint.writeRandom(out, rand);
+	}
+	public void restore(DataInputStream in) throws IOException {
+		rCtr = in.readInt();
+		classes.restore(in);
+		rand = Checkpoint.readRandom(in);
+	}
+	public int classOf(int pageNum) {		//class 0: R=0 D=0, class 1: R=0 D=1, class 2: R=1 D=0, class 3: R=1 D=1
+		return table.getR(pageNum)*2 + table.getD(pageNum);
+	}
+}
+
+class NruBuckets {
+	//each class is an unordered array of frames plus a frame -> slot index, so add, remove and move are all O(1)
+	private int[][] members;
+	private int[] size;
+	private int[] classOf;		//class of each frame, -1 if the frame is not in any class
+	private int[] slotOf;		//where each frame sits in members[classOf[frame]]
+	
+	public NruBuckets(int frames) {
+		this.members = new int[4][frames];
+		this.size = new int[4];
+		this.classOf = new int[frames];
+		this.slotOf = new int[frames];
+		Arrays.fill(this.classOf, -1);
+	}
+	public int size(int c) {
+		return size[c];
+	}
+	public int get(int c, int i) {
+		return members[c][i];
+	}
+	public int classOf(int frame) {
+		return classOf[frame];
+	}
+	public int slotOf(int frame) {
+		return slotOf[frame];
+	}
+	public void add(int frame, int c) {
+		members[c][size[c]] = frame;
+		slotOf[frame] = size[c];
+		classOf[frame] = c;
+		size[c]++;
+	}
+	public int removeAt(int c, int i) {		//swap the last frame of the class into slot i
+		int frame = members[c][i];
+		int last = members[c][--size[c]];
+		members[c][i] = last;
+		slotOf[last] = i;
+		classOf[frame] = -1;
+		return frame;
+	}
+	public void move(int frame, int c) {
+		if(classOf[frame] == c) return;
+		if(classOf[frame] >= 0) removeAt(classOf[frame], slotOf[frame]);
+		add(frame, c);
+	}
+	public void save(DataOutputStream out) throws IOException {
+		Checkpoint.writeInts(out, size, 4);
+		for(int c=0; c<4; c++) Checkpoint.writeInts(out, members[c], size[c]);
+		Checkpoint.writeInts(out, classOf, classOf.length);
+		Checkpoint.writeInts(out, slotOf, slotOf.length);
+	}
+	public void restore(DataInputStream in) throws IOException {
+		size = Checkpoint.readInts(in, 4);
+		for(int c=0; c<4; c++) members[c] = Checkpoint.readInts(in, members[c].length);
+		classOf = Checkpoint.readInts(in, classOf.length);
+		slotOf = Checkpoint.readInts(in, slotOf.length);
+	}
+	public void moveAll(int from, int to) {		//append every frame of one class to another, O(1) per moved frame
+		for(int i=0; i<size[from]; i++) {
+			int frame = members[from][i];
+			members[to][size[to]] = frame;
+			slotOf[frame] = size[to];
+			classOf[frame] = to;
+			size[to]++;
+		}
+		size[from] = 0;
+	}
+}
+
+
+
+class FrameRing {
+	//fixed-size circular queue of frame indices, at most numFrames entries so it never grows
+	private int[] ring;
+	private int head;		//oldest entry
+	private int count;
+	
+	public FrameRing(int numFrames) {
+		this.ring = new int[numFrames];
+		this.head = 0;
+		this.count = 0;
+	}
+	public void push(int frame) {
+		int tail = head + count;
+		if(tail >= ring.length) tail -= ring.length;
+		ring[tail] = frame;
+		count++;
+	}
+	public int pop() {
+		int frame = ring[head];
+		head++;
+		if(head == ring.length) head = 0;
+		count--;
+		return frame;
+	}
+	public int popExcept(int keep) {		//the oldest entry other than keep, which stays the oldest
+		if(ring[head] != keep) return pop();
+		int second = head + 1 == ring.length ? 0 : head + 1;
+		int frame = ring[second];
+		ring[second] = keep;
+		pop();
+		return frame;
+	}
+	public void save(DataOutputStream out) throws IOException {
+		out.writeInt(head);
+		out.writeInt(count);
+		Checkpoint.writeInts(out, ring, ring.length);
+	}
+	public void restore(DataInputStream in) throws IOException {
+		head = in.readInt();
+		count = in.readInt();
+		ring = Checkpoint.readInts(in, ring.length);
+	}
+}
+
+class fifoAlgo implements ReplacementPolicy {
+	private FrameRing queue;		//frames in the order their pages were loaded
+	
+	public String getName() {
+		return "FIFO";
+	}
+	public void init(Simulator sim) {
+		this.queue = new FrameRing(sim.getNumFrames());
+	}
+	public void onHit(int frame, int pageNum) {
+		//a hit does not change the load order
+	}
+	public void onLoad(int frame, int pageNum) {
+		queue.push(frame);		//newest at the back
+	}
+	public int selectVictim(int pageNum, int keep) {
+		return queue.popExcept(keep);		//oldest load, onLoad puts the frame back at the end with its new page
+	}
+	public void save(DataOutputStream out) throws IOException {
+		queue.save(out);
+	}
+	public void restore(DataInputStream in) throws IOException {
+		queue.restore(in);
+	}
+}
+
+class secondChanceAlgo implements ReplacementPolicy {
+	//FIFO, except the oldest frame is skipped and requeued with its R bit cleared if its page was referenced.
+	//Uses the page table R bit like clockAlgo, so the two evict the same frames - clock is this queue with the
+	//requeue replaced by moving a hand.
+	private FrameRing queue;
+	private int[] frameTable;
+	private PackedPageTable table;
+	
+	public String getName() {
+		return "Second-Chance";
+	}
+	public void init(Simulator sim) {
+		this.queue = new FrameRing(sim.getNumFrames());
+		this.frameTable = sim.getFrameTable();
+		this.table = sim.getPageTable();
+	}
+	public void onHit(int frame, int pageNum) {
+		//the R bit is already set in the page table
+	}
+	public void onLoad(int frame, int pageNum) {
+		queue.push(frame);
+	}
+	public int selectVictim(int pageNum, int keep) {
+		while(true) {
+			int frame = queue.pop();
+			if(frame != keep && table.getR(frameTable[frame])==0) return frame;
+			if(frame != keep) table.setR(frameTable[frame], 0);		//second chance: clear R and send it to the back
+			queue.push(frame);		//keep goes round with its R bit as it is, as clock's hand passes it
+		}
+	}
+	public void save(DataOutputStream out) throws IOException {
+		queue.save(out);
+	}
+	public void restore(DataInputStream in) throws IOException {
+		queue.restore(in);
+	}
+}
+
+class randAlgo implements ReplacementPolicy {
+	private Random rand;
+	private int numFrames;
+	
+	public randAlgo() {
+		this.rand = new Random();
+	}
+	public String getName() {
+		return "Random";
+	}
+	public void init(Simulator sim) {
+		this.numFrames = sim.getNumFrames();
+	}
+	public void onHit(int frame, int pageNum) {
+	}
+	public void onLoad(int frame, int pageNum) {
+	}
+	public int selectVictim(int pageNum, int keep) {
+		if(keep < 0) return rand.nextInt(numFrames);	//generate a number between 0 and numFrames, inclusively and exclusively (i.e. 4 frames means 0/1/2/3)
+		int frame = rand.nextInt(numFrames - 1);		//any of the others
+		return frame < keep ? frame : frame + 1;
+	}
+	public void save(DataOutputStream out) throws IOException {
+		Checkpoint.writeRandom(out, rand);
+	}
+	public void restore(DataInputStream in) throws IOException {
+		rand = Checkpoint.readRandom(in);
+	}
+}
+
+class PageLists {
+	//several doubly-linked lists over page numbers, stored as prev/next arrays so nothing is allocated per page.
+	//A page is in at most one list. head is the oldest (LRU) end, tail the newest (MRU) end.
+	private int[] prev;
+	private int[] next;
+	private byte[] listOf;		//0 if the page is in no list
+	private int[] head;
+	private int[] tail;
+	private int[] size;
+	
+	public PageLists(int numLists, int numPages) {
+		this.prev = new int[numPages];
+		this.next = new int[numPages];
+		this.listOf = new byte[numPages];
+		this.head = new int[numLists+1];		//lists are numbered from 1
+		this.tail = new int[numLists+1];
+		this.size = new int[numLists+1];
+		Arrays.fill(this.head, -1);
+		Arrays.fill(this.tail, -1);
+	}
+	public void grow(int numPages) {
+		this.prev = Arrays.copyOf(this.prev, numPages);
+		this.next = Arrays.copyOf(this.next, numPages);
+		this.listOf = Arrays.copyOf(this.listOf, numPages);
+	}
+	public int listOf(int pageNum) {
+		return listOf[pageNum];
+	}
+	public int size(int list) {
+		return size[list];
+	}
+	public int head(int list) {
+		return head[list];
+	}
+	public int next(int pageNum) {		//the page after it towards the tail, -1 at the tail
+		return next[pageNum];
+	}
+	public void addTail(int list, int pageNum) {
+		prev[pageNum] = tail[list];
+		next[pageNum] = -1;
+		if(tail[list] >= 0) next[tail[list]] = pageNum;
+		else head[list] = pageNum;
+		tail[list] = pageNum;
+		listOf[pageNum] = (byte)list;
+		size[list]++;
+	}
+	public void remove(int pageNum) {
+		int list = listOf[pageNum];
+		if(prev[pageNum] >= 0) next[prev[pageNum]] = next[pageNum];
+		else head[list] = next[pageNum];
+		if(next[pageNum] >= 0) prev[next[pageNum]] = prev[pageNum];
+		else tail[list] = prev[pageNum];
+		listOf[pageNum] = 0;
+		size[list]--;
+	}
+	public int removeHead(int list) {
+		int pageNum = head[list];
+		remove(pageNum);
+		return pageNum;
+	}
+	public void moveToTail(int list, int pageNum) {
+		remove(pageNum);
+		addTail(list, pageNum);
+	}
+	public void save(DataOutputStream out) throws IOException {
+		Checkpoint.writeInts(out, head, head.length);
+		Checkpoint.writeInts(out, tail, tail.length);
+		Checkpoint.writeInts(out, size, size.length);
+		Checkpoint.writeInts(out, prev, prev.length);
+		Checkpoint.writeInts(out, next, next.length);
+		Checkpoint.writeBytes(out, listOf, listOf.length);
+	}
+	public void restore(DataInputStream in) throws IOException {
+		head = Checkpoint.readInts(in, head.length);
+		tail = Checkpoint.readInts(in, tail.length);
+		size = Checkpoint.readInts(in, size.length);
+		prev = Checkpoint.readInts(in, prev.length);
+		next = Checkpoint.readInts(in, next.length);
+		listOf = Checkpoint.readBytes(in, listOf.length);
+	}
+}
+
+class arcAlgo implements ReplacementPolicy {
+	//Megiddo and Modha's ARC. T1 holds pages seen once recently, T2 pages seen at least twice; B1/B2 remember pages
+	//recently evicted from each. A hit in B1 means T1 was too small, a hit in B2 that T2 was, and the target size p
+	//of T1 moves accordingly, so a long scan only churns T1 and B1 while the frequently used pages in T2 survive.
+	private static final int T1 = 1, T2 = 2, B1 = 3, B2 = 4;
+	private Simulator sim;
+	private PageLists lists;
+	private int c;		//number of frames
+	private int p;		//target size of T1
+	
+	public String getName() {
+		return "ARC";
+	}
+	public void init(Simulator sim) {
+		this.sim = sim;
+		this.lists = new PageLists(4, sim.getPageCapacity());
+		this.c = sim.getNumFrames();
+		this.p = 0;
+	}
+	public void growPages(int capacity) {
+		lists.grow(capacity);
+	}
+	public void save(DataOutputStream out) throws IOException {
+		out.writeInt(p);
+		lists.save(out);
+	}
+	public void restore(DataInputStream in) throws IOException {
+		p = in.readInt();
+		lists.restore(in);
+	}
+	public void onHit(int frame, int pageNum) {
+		lists.moveToTail(T2, pageNum);		//case I: seen again, most recent end of T2
+	}
+	public void onLoad(int frame, int pageNum) {
+		int list = lists.listOf(pageNum);
+		if(list == B1 || list == B2) lists.moveToTail(T2, pageNum);		//ghost hit, seen twice now
+		else lists.addTail(T1, pageNum);
+	}
+	public int selectVictim(int pageNum, int keep) {
+		int keepPage = keep < 0 ? -1 : sim.getFrameTable()[keep];
+		int list = lists.listOf(pageNum);
+		if(list == B1) {		//case II: T1 should have been bigger
+			p = Math.min(c, p + Math.max(1, lists.size(B2) / lists.size(B1)));
+			return replace(false, keepPage);
+		}
+		if(list == B2) {		//case III: T2 should have been bigger
+			p = Math.max(0, p - Math.max(1, lists.size(B1) / lists.size(B2)));
+			return replace(true, keepPage);
+		}
+		//case IV: a page not seen recently at all, keep T1+B1 and the whole directory within bounds first
+		if(lists.size(T1) + lists.size(B1) == c) {
+			if(lists.size(T1) < c) {
+				lists.removeHead(B1);
+				return replace(false, keepPage);
+			}
+			int victim = oldest(T1, keepPage);		//B1 is empty, drop T1's oldest page without remembering it
+			lists.remove(victim);
+			return sim.getFrame(victim);
+		}
+		if(lists.size(T1) + lists.size(T2) + lists.size(B1) + lists.size(B2) == 2*c) {
+			lists.removeHead(B2);
+		}
+		return replace(false, keepPage);
+	}
+	private int replace(boolean inB2, int keepPage) {
+		//evict from T1 if it is over its target, otherwise from T2, and remember the page in the matching ghost list.
+		//If keepPage is all the list has, the other one gives up its oldest page instead
+		int t1 = lists.size(T1);
+		boolean fromT1 = t1 >= 1 && (t1 > p || (inB2 && t1 == p));
+		int victim = oldest(fromT1 ? T1 : T2, keepPage);
+		if(victim < 0) {
+			fromT1 = !fromT1;
+			victim = oldest(fromT1 ? T1 : T2, keepPage);
+		}
+		lists.moveToTail(fromT1 ? B1 : B2, victim);
+		return sim.getFrame(victim);
+	}
+	private int oldest(int list, int keepPage) {		//the head of the list, or the page after it if the head is keepPage
+		int page = lists.head(list);
+		return page >= 0 && page == keepPage ? lists.next(page) : page;
+	}
+}
+
+class carAlgo implements ReplacementPolicy {
+	//Bansal and Modha's CAR: ARC's T1/T2/B1/B2 and target p, but T1 and T2 are clocks with a reference bit per page,
+	//so a hit only sets a bit. The hand sweeps T1 while it is over its target and T2 otherwise: pages with the bit set
+	//get it cleared and move to the back of T2, the first page without it is evicted into B1 or B2.
+	private static final int T1 = 1, T2 = 2, B1 = 3, B2 = 4;
+	private Simulator sim;
+	private PageLists lists;
+	private byte[] ref;		//CAR's own reference bit per page, the page table's R bit is set by every reference including the faulting one
+	private int c;
+	private int p;
+	
+	public String getName() {
+		return "CAR";
+	}
+	public void init(Simulator sim) {
+		this.sim = sim;
+		this.lists = new PageLists(4, sim.getPageCapacity());
+		this.ref = new byte[sim.getPageCapacity()];
+		this.c = sim.getNumFrames();
+		this.p = 0;
+	}
+	public void growPages(int capacity) {
+		lists.grow(capacity);
+		ref = Arrays.copyOf(ref, capacity);
+	}
+	public void save(DataOutputStream out) throws IOException {
+		out.writeInt(p);
+		lists.save(out);
+		Checkpoint.writeBytes(out, ref, ref.length);
+	}
+	public void restore(DataInputStream in) throws IOException {
+		p = in.readInt();
+		lists.restore(in);
+		ref = Checkpoint.readBytes(in, ref.length);
+	}
+	public void onHit(int frame, int pageNum) {
+		ref[pageNum] = 1;
+	}
+	public void onLoad(int frame, int pageNum) {
+		int list = lists.listOf(pageNum);
+		if(list == B1) {
+			p = Math.min(c, p + Math.max(1, lists.size(B2) / lists.size(B1)));
+			lists.moveToTail(T2, pageNum);
+		}
+		else if(list == B2) {
+			p = Math.max(0, p - Math.max(1, lists.size(B1) / lists.size(B2)));
+			lists.moveToTail(T2, pageNum);
+		}
+		else {
+			lists.addTail(T1, pageNum);
+		}
+		ref[pageNum] = 0;
+	}
+	public int selectVictim(int pageNum, int keep) {
+		int frame = replace(keep < 0 ? -1 : sim.getFrameTable()[keep]);
+		//directory replacement, only for pages not remembered in either ghost list
+		int list = lists.listOf(pageNum);
+		if(list != B1 && list != B2) {
+			if(lists.size(T1) + lists.size(B1) == c) {
+				lists.removeHead(B1);
+			}
+			else if(lists.size(T1) + lists.size(T2) + lists.size(B1) + lists.size(B2) == 2*c) {
+				lists.removeHead(B2);
+			}
+		}
+		return frame;
+	}
+	private int replace(int keepPage) {
+		//keepPage is passed over with its bit as it is, or if it is all the swept clock has, the other one is swept
+		while(true) {
+			int list = lists.size(T1) >= Math.max(1, p) ? T1 : T2;
+			int page = lists.head(list);
+			if(page == keepPage) {
+				if(lists.size(list) > 1) {
+					lists.moveToTail(list, page);
+					continue;
+				}
+				list = list == T1 ? T2 : T1;
+				page = lists.head(list);
+			}
+			if(ref[page] == 0) {
+				lists.moveToTail(list == T1 ? B1 : B2, page);
+				return sim.getFrame(page);
+			}
+			ref[page] = 0;
+			lists.moveToTail(T2, page);
+		}
+	}
+}
+
+interface Prefetcher {
+	//decides which pages to bring in besides the one a fault asked for. Prefetchers only name (pid, pageNum) pairs,
+	//the Simulator skips the resident ones and loads the rest through the replacement policy like any other page
+	public String getName();		//printed as "Prefetcher:" in the summary
+	public default void init(Simulator sim) throws IOException {		//called once before the first reference
+	}
+	public int onFault(int pid, long pageNum, long[] pages);		//pageNum just faulted, put the pages to prefetch in pages and return how many
+	public default int onUse(int pid, long pageNum, long[] pages) {		//first reference to a prefetched page, it may prefetch more
+		return 0;
+	}
+	public default void onTick() {		//after every memory reference
+	}
+	public default void finish() throws IOException {		//after the last reference
+	}
+	public default boolean readsAhead() {		//true if it opens the trace itself, to read references before the simulation gets to them
+		return false;
+	}
+	
+	public static Prefetcher create(String spec) {
+		//"seq[:<max window>]", "stride[:<degree>]" or "oracle[:<degree>]", null if it is none of those
+		String[] parts = spec.split(":");
+		if(parts.length > 2) return null;
+		int n;
+		try {
+			n = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+		} catch(NumberFormatException e) {
+			return null;
+		}
+		if(parts.length > 1 && (n < 1 || n > MAX_PAGES)) return null;
+		if(parts[0].equals("seq")) return new readaheadPrefetcher(parts.length > 1 ? n : 32);
+		if(parts[0].equals("stride")) return new stridePrefetcher(parts.length > 1 ? n : 4);
+		if(parts[0].equals("oracle")) return new oraclePrefetcher(parts.length > 1 ? n : 4);
+		return null;
+	}
+	public static final int MAX_PAGES = 1024;		//most pages one call may ask for, the size of the pages array
+}
+
+class readaheadPrefetcher implements Prefetcher {
+	//sequential read-ahead in the style of the Linux page cache, per process. A fault that continues the last window
+	//doubles the window (up to maxWindow), any other fault starts over with INITIAL_WINDOW pages. The first page of
+	//each window is a marker: when the process gets to it, the next window is read ahead before it is needed, so a
+	//steady stream stops faulting altogether.
+	public static final int INITIAL_WINDOW = 4;
+	private int maxWindow;
+	private IntIndex pids;
+	private long[] next;		//per process, the page after the last window
+	private long[] marker;		//per process, first page of the last window, -1 if none
+	private int[] window;
+	
+	public readaheadPrefetcher(int maxWindow) {
+		this.maxWindow = maxWindow;
+		this.pids = new IntIndex();
+		this.next = new long[4];
+		this.marker = new long[4];
+		this.window = new int[4];
+	}
+	public String getName() {
+		return "Sequential read-ahead (window up to "+maxWindow+")";
+	}
+	public int onFault(int pid, long pageNum, long[] pages) {
+		int p = processOf(pid);
+		window[p] = pageNum == next[p] ? Math.min(window[p]*2, maxWindow) : Math.min(INITIAL_WINDOW, maxWindow);
+		next[p] = pageNum + 1;
+		return readAhead(p, pages);
+	}
+	public int onUse(int pid, long pageNum, long[] pages) {
+		int p = processOf(pid);
+		if(pageNum != marker[p]) return 0;
+		window[p] = Math.min(window[p]*2, maxWindow);
+		return readAhead(p, pages);
+	}
+	private int readAhead(int p, long[] pages) {
+		for(int i=0; i<window[p]; i++) {
+			pages[i] = next[p] + i;
+		}
+		marker[p] = next[p];
+		next[p] += window[p];
+		return window[p];
+	}
+	private int processOf(int pid) {
+		int p = pids.indexOf(pid);
+		if(p == next.length) {
+			next = Arrays.copyOf(next, p*2);
+			marker = Arrays.copyOf(marker, p*2);
+			window = Arrays.copyOf(window, p*2);
+		}
+		if(window[p] == 0) {		//first fault of the process
+			next[p] = -1;
+			marker[p] = -1;
+			window[p] = INITIAL_WINDOW;
+		}
+		return p;
+	}
+}
+
+class stridePrefetcher implements Prefetcher {
+	//stride detection on each process's faults: two faults in a row the same distance apart confirm the stride, and
+	//the next degree pages along it are prefetched. Like read-ahead, reaching the first of them prefetches the next
+	//degree, so a confirmed stream keeps running ahead of the process.
+	private int degree;
+	private IntIndex pids;
+	private long[] lastFault;		//per process
+	private long[] stride;		//per process, 0 until two faults have happened
+	private long[] next;		//per process, the next page along the stride not yet prefetched
+	private long[] marker;		//per process, first page of the last group prefetched, -1 if none
+	
+	public stridePrefetcher(int degree) {
+		this.degree = degree;
+		this.pids = new IntIndex();
+		this.lastFault = new long[4];
+		this.stride = new long[4];
+		this.next = new long[4];
+		this.marker = new long[4];
+	}
+	public String getName() {
+		return "Stride (degree "+degree+")";
+	}
+	public int onFault(int pid, long pageNum, long[] pages) {
+		int p = processOf(pid);
+		long d = pageNum - lastFault[p];
+		lastFault[p] = pageNum;
+		if(d == 0 || d != stride[p]) {
+			stride[p] = d;
+			marker[p] = -1;
+			return 0;
+		}
+		next[p] = pageNum + d;
+		return prefetch(p, pages);
+	}
+	public int onUse(int pid, long pageNum, long[] pages) {
+		int p = processOf(pid);
+		if(pageNum != marker[p]) return 0;
+		return prefetch(p, pages);
+	}
+	private int prefetch(int p, long[] pages) {
+		int n = 0;
+		while(n < degree && next[p] >= 0) {		//a negative stride stops at page 0
+			pages[n++] = next[p];
+			next[p] += stride[p];
+		}
+		marker[p] = n > 0 ? pages[0] : -1;
+		return n;
+	}
+	private int processOf(int pid) {
+		int p = pids.indexOf(pid);
+		if(p == lastFault.length) {
+			lastFault = Arrays.copyOf(lastFault, p*2);
+			stride = Arrays.copyOf(stride, p*2);
+			next = Arrays.copyOf(next, p*2);
+			marker = Arrays.copyOf(marker, p*2);
+		}
+		return p;
+	}
+}
+
+class oraclePrefetcher implements Prefetcher {
+	//knows the future: reads the trace LOOKAHEAD references ahead of the simulation into a ring, and on a fault
+	//prefetches the next degree distinct pages the faulting process will reference that are not resident. A bound
+	//on what a prefetcher of that degree could do.
+	public static final int LOOKAHEAD = 1024;
+	private int degree;
+	private Simulator sim;
+	private TraceReader reader;
+	private int[] ringPid;
+	private long[] ringPage;
+	private int head;		//slot of the current reference
+	private int ahead;		//references in the ring from head on
+	
+	public oraclePrefetcher(int degree) {
+		this.degree = degree;
+	}
+	public String getName() {
+		return "Oracle (degree "+degree+")";
+	}
+	public void init(Simulator sim) throws IOException {
+		this.sim = sim;
+		this.reader = sim.getTrace().open();
+		this.ringPid = new int[LOOKAHEAD];
+		this.ringPage = new long[LOOKAHEAD];
+		this.head = 0;
+		this.ahead = 0;
+		while(ahead < LOOKAHEAD && reader.next()) {
+			ringPid[ahead] = reader.pid();
+			ringPage[ahead] = reader.pageNum();
+			ahead++;
+		}
+	}
+	public int onFault(int pid, long pageNum, long[] pages) {
+		int n = 0;
+		for(int j=1; j<ahead && n<degree; j++) {
+			int slot = (head + j) & (LOOKAHEAD - 1);
+			if(ringPid[slot] != pid || ringPage[slot] == pageNum) continue;		//only the faulting process's own pages
+			boolean seen = false;
+			for(int k=0; k<n && !seen; k++) seen = pages[k] == ringPage[slot];
+			if(!seen && !sim.isResident(pid, ringPage[slot])) pages[n++] = ringPage[slot];
+		}
+		return n;
+	}
+	public void onTick() {
+		//the current reference is done, refill its slot with the one LOOKAHEAD further on
+		try {
+			if(reader.next()) {
+				ringPid[head] = reader.pid();
+				ringPage[head] = reader.pageNum();
+			}
+			else {
+				ahead--;
+			}
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		head = (head + 1) & (LOOKAHEAD - 1);
+	}
+	public void finish() throws IOException {
+		reader.close();
+	}
+	public boolean readsAhead() {
+		return true;
+	}
+}
+
+class CostModel {
+	//simulated time for one Simulator. Every reference costs hitNs, a fault waits for the disk to read the page in, and
+	//the disk is one device that does one thing at a time, so a fault also waits for any write still in progress:
+	//a dirty victim written back right there, or a batch from the cleaner. Time only moves at references, faults and
+	//cleaner batches, so per reference this is an add and a couple of compares.
+	//The optional cleaner writes back dirty resident pages in the background, batchSize at a time and the longest
+	//unwritten first: once the disk has been idle for idleNs, the pages not written to for idleNs either, and any of
+	//them once the dirty frames reach the watermark. A batch is sorted so adjacent pages of a process go out as one
+	//write of writeNs plus transferNs per extra page, which is where the coalescing comes from.
+	//A prefetch queues its read on the disk without waiting for it, and the first reference to the page waits for
+	//whatever of the read is left.
+	public static final String DEFAULT_LATENCIES = "100:100000:100000:10000";
+	private Simulator sim;
+	private long hitNs, faultNs, writeNs, transferNs;
+	private boolean cleaner;
+	private int batchSize;
+	private int watermark;		//dirty frames that start a batch right away
+	private int watermarkPercent;
+	private long idleNs;
+	private long now;
+	private long diskFree;		//when the disk finishes what it has been given
+	private long writesDone;		//when the last write it has been given finishes
+	private long[] readyAt;		//per frame, when a prefetch read into it finishes, 0 once it has been waited for
+	private long stall;		//time faults spent waiting for the disk
+	private long writeStall;		//the part of it spent waiting for writes to finish
+	private long syncWrites;		//dirty victims written back at the fault
+	private long cleanerPages, cleanerWrites;		//pages the cleaner wrote back, and the writes they took
+	private int[] prev, next;		//resident frames whose page is dirty, a list in order of their last write, -1 ends it
+	private int head, tail;
+	private long[] writtenAt;		//per frame, when its page was last written, -1 if it is clean
+	private int dirtyCount;
+	private int[] batchProcess;
+	private long[] batchPage;
+	
+	public CostModel(long hitNs, long faultNs, long writeNs, long transferNs) {
+		this.hitNs = hitNs;
+		this.faultNs = faultNs;
+		this.writeNs = writeNs;
+		this.transferNs = transferNs;
+		this.cleaner = false;
+	}
+	public static CostModel parse(String spec) {
+		//"<hit>:<fault>:<write>[:<transfer>]" in nanoseconds, null if that is not what it is
+		String[] parts = spec.split(":");
+		if(parts.length < 3 || parts.length > 4) return null;
+		long[] ns = new long[4];
+		try {
+			for(int i=0; i<parts.length; i++) ns[i] = Long.parseLong(parts[i]);
+		} catch(NumberFormatException e) {
+			return null;
+		}
+		if(parts.length == 3) ns[3] = ns[2]/10;
+		for(long n : ns) {
+			if(n < 0) return null;
+		}
+		return new CostModel(ns[0], ns[1], ns[2], ns[3]);
+	}
+	public boolean setCleaner(String spec) {
+		//"<batch>[:<watermark %>[:<idle ns>]]", false if that is not what it is
+		String[] parts = spec.split(":");
+		if(parts.length > 3) return false;
+		try {
+			batchSize = Integer.parseInt(parts[0]);
+			watermarkPercent = parts.length > 1 ? Integer.parseInt(parts[1]) : 50;
+			idleNs = parts.length > 2 ? Long.parseLong(parts[2]) : 10*writeNs;
+		} catch(NumberFormatException e) {
+			return false;
+		}
+		if(batchSize < 1 || watermarkPercent < 1 || watermarkPercent > 100 || idleNs < 0) return false;
+		cleaner = true;
+		return true;
+	}
+	public void init(Simulator sim) {
+		this.sim = sim;
+		int frames = sim.getNumFrames();
+		this.prev = new int[frames];
+		this.next = new int[frames];
+		this.head = -1;
+		this.tail = -1;
+		this.writtenAt = new long[frames];
+		Arrays.fill(this.writtenAt, -1);
+		this.readyAt = new long[frames];
+		this.dirtyCount = 0;
+		this.watermark = (int)Math.max(1, (long)frames * watermarkPercent / 100);
+		this.batchProcess = new int[batchSize];
+		this.batchPage = new long[batchSize];
+	}
+	public void hit(int frame, int dirty) {
+		if(readyAt[frame] != 0) {		//first reference to a prefetched page
+			if(readyAt[frame] > now) {
+				stall += readyAt[frame] - now;
+				now = readyAt[frame];
+			}
+			readyAt[frame] = 0;
+		}
+		setDirty(frame, dirty);		//the reference sets the page's D bit to its own
+	}
+	public void evict(int frame, boolean dirty) {
+		setDirty(frame, 0);
+		if(dirty) {		//the victim has to be on disk before its frame is reused
+			diskFree = Math.max(now, diskFree) + writeNs;
+			writesDone = diskFree;
+			syncWrites++;
+		}
+	}
+	public void load(int frame, int dirty) {
+		long start = Math.max(now, diskFree);
+		writeStall += Math.max(0, Math.min(start, writesDone) - now);		//only prefetch reads can be queued alongside writes
+		diskFree = start + faultNs;
+		stall += diskFree - now;
+		now = diskFree;
+		readyAt[frame] = 0;
+		setDirty(frame, dirty);
+	}
+	public void prefetch(int frame) {
+		diskFree = Math.max(now, diskFree) + faultNs;
+		readyAt[frame] = diskFree;
+		setDirty(frame, 0);
+	}
+	public void tick() {
+		now += hitNs;
+		if(cleaner && dirtyCount > 0) {
+			if(dirtyCount >= watermark) clean(false);
+			else if(now - diskFree >= idleNs && now - writtenAt[head] >= idleNs) clean(true);
+		}
+	}
+	private void setDirty(int frame, int dirty) {
+		if(writtenAt[frame] >= 0) {		//unlink
+			if(prev[frame] >= 0) next[prev[frame]] = next[frame];
+			else head = next[frame];
+			if(next[frame] >= 0) prev[next[frame]] = prev[frame];
+			else tail = prev[frame];
+			writtenAt[frame] = -1;
+			dirtyCount--;
+		}
+		if(dirty != 0) {		//to the end of the list
+			prev[frame] = tail;
+			next[frame] = -1;
+			if(tail >= 0) next[tail] = frame;
+			else head = frame;
+			tail = frame;
+			writtenAt[frame] = now;
+			dirtyCount++;
+		}
+	}
+	private void clean(boolean idle) {
+		//take up to batchSize dirty frames, clear their D bits, and queue the writes on the disk behind whatever it is doing
+		int[] frameTable = sim.getFrameTable();
+		PageDirectory pages = sim.getPages();
+		int n = 0;
+		while(n < batchSize && head >= 0 && (!idle || now - writtenAt[head] >= idleNs)) {
+			int i = n++;
+			int frame = head;
+			int page = frameTable[frame];
+			sim.clean(frame);
+			setDirty(frame, 0);
+			//insertion sort by (process, pageNum), a batch is small
+			int process = pages.processOf(page);
+			long pageNum = pages.pageNumOf(page);
+			int j = i;
+			while(j > 0 && (batchProcess[j-1] > process || (batchProcess[j-1] == process && batchPage[j-1] > pageNum))) {
+				batchProcess[j] = batchProcess[j-1];
+				batchPage[j] = batchPage[j-1];
+				j--;
+			}
+			batchProcess[j] = process;
+			batchPage[j] = pageNum;
+		}
+		long busy = Math.max(now, diskFree);
+		for(int i=0; i<n; i++) {
+			if(i > 0 && batchProcess[i] == batchProcess[i-1] && batchPage[i] == batchPage[i-1] + 1) {
+				busy += transferNs;		//continues the previous write
+			}
+			else {
+				busy += writeNs;
+				cleanerWrites++;
+			}
+		}
+		diskFree = busy;
+		writesDone = busy;
+		cleanerPages += n;
+	}
+	public void print() {
+		System.out.println("Simulated time:	"+seconds(now)+" s");
+		System.out.println("Stall time:	"+seconds(stall)+" s ("+percent(stall, now)+" of simulated time)");
+		System.out.println("Write stall time:	"+seconds(writeStall)+" s");
+		long pages = syncWrites + cleanerPages;
+		long writes = syncWrites + cleanerWrites;
+		if(cleaner) {
+			System.out.println("Cleaner writes:	"+cleanerPages+" pages in "+cleanerWrites+" writes (part of the total writes to disk)");
+		}
+		System.out.println("Write coalescing:	"+(writes == 0 ? "0.000" : String.format("%.3f", (double)pages / writes))+" pages per write");
+	}
+	private static String seconds(long ns) {
+		return String.format("%.6f", ns / 1e9);
+	}
+	private static String percent(long part, long whole) {
+		return whole == 0 ? "0.0%" : String.format("%.1f%%", 100.0 * part / whole);
+	}
+}
+
+class Metrics {
+	//what the Simulator did, every window references and overall. The window counters are the Simulator's own
+	//totals differenced at each window end, so per reference this is a compare plus the reuse sampling below.
+	//Windows are written as they complete, the histograms at close, to a file of their own for CSV.
+	//Reuse distance is the LRU stack distance, the distinct pages referenced since the same page was last referenced,
+	//so a reference hits with n frames of LRU exactly when it is under n. As in SHARDS (see mrcAlgo) it is only
+	//tracked for the pages whose hashed id falls in 1 of every 2^SAMPLE_SHIFT: the distances among those are the
+	//true ones shrunk by the same factor, so they are scaled back up, and the counts are of the sampled references.
+	//Eviction age is references since the evicted page was loaded, recorded for the same sampled pages. At 1 in 64 the
+	//histograms cost a multiply and a compare on most references and faults, a few percent of a simulation.
+	public static final long DEFAULT_WINDOW = 100000;
+	public static final int SAMPLE_SHIFT = 6;
+	private Simulator sim;
+	private PrintWriter out;
+	private String histogramFile;		//where the CSV histograms go, null for JSON
+	private boolean json;
+	private long window;
+	private long windowEnd;		//time the current window closes
+	private int[] lastTime;		//per sampled page id, its slot in the tree, -1 if never referenced
+	private ReuseDistanceTree tree;		//the sampled pages' last references
+	private long[] loadTime;		//per frame, when its page was loaded
+	private long faults, cold, evictions, writes;		//Simulator totals at the end of the last window
+	private int windows;
+	private LogHistogram reuse;
+	private LogHistogram evictionAge;
+	
+	public Metrics(String filename, long window) throws IOException {
+		this.out = new PrintWriter(new BufferedWriter(new FileWriter(filename), 1 << 16));
+		this.json = filename.endsWith(".json");
+		this.window = window;
+		this.windowEnd = window;
+		this.windows = 0;
+		this.reuse = new LogHistogram();
+		this.evictionAge = new LogHistogram();
+		this.histogramFile = json ? null : fileFor(filename, "histograms");
+		if(json) out.print("{\"window\":"+window+",\"sampleRate\":"+(1.0 / (1 << SAMPLE_SHIFT))+",\"windows\":[");
+		else out.println("end,hits,faults,cold,evict_clean,evict_dirty,resident_dirty");
+	}
+	public static String fileFor(String statsFile, String tag) {
+		//stats.csv -> stats-clock-64.csv, for one file per run in a sweep
+		int dot = statsFile.lastIndexOf('.');
+		if(dot <= statsFile.lastIndexOf(File.separatorChar)) return statsFile+"-"+tag;
+		return statsFile.substring(0, dot)+"-"+tag+statsFile.substring(dot);
+	}
+	public void init(Simulator sim) {
+		this.sim = sim;
+		this.loadTime = new long[sim.getNumFrames()];
+		this.lastTime = new int[sim.getPageCapacity()];
+		Arrays.fill(lastTime, -1);
+		this.tree = new ReuseDistanceTree(lastTime, 1);
+	}
+	public void growPages(int capacity) {
+		int n = lastTime.length;
+		lastTime = Arrays.copyOf(lastTime, capacity);
+		Arrays.fill(lastTime, n, capacity, -1);
+		tree.setLastTime(lastTime);
+	}
+	private static boolean sampled(int pageNum) {
+		return (pageNum * 0x9E3779B9) >>> (32 - SAMPLE_SHIFT) == 0;
+	}
+	public void load(int frame, int pageNum, long time) {
+		if(sampled(pageNum)) loadTime[frame] = time;
+	}
+	public void evict(int frame, int pageNum, long time) {
+		if(sampled(pageNum)) evictionAge.record(time - loadTime[frame]);
+	}
+	public void tick(int pageNum, long time) {
+		//time counts the reference that just finished
+		if(sampled(pageNum)) {
+			int slot = lastTime[pageNum];
+			if(slot >= 0) {
+				reuse.record((long)tree.countAfter(slot) << SAMPLE_SHIFT);
+				tree.remove(slot);
+			}
+			lastTime[pageNum] = tree.add(pageNum, 0);
+		}
+		if(time == windowEnd) endWindow();
+	}
+	private void endWindow() {
+		long time = sim.getTotalMemAcc();
+		long faults = sim.getTotalPgFaults() - this.faults;
+		long hits = (time - windowEnd + window) - faults;
+		long cold = sim.getDistinctPages() - this.cold;
+		long evictions = sim.getTotalEvictions() - this.evictions;
+		long evictDirty = sim.getEvictionWrites() - this.writes;
+		long residentDirty = sim.countResidentDirty();
+		if(json) {
+			out.print((windows > 0 ? "," : "")+"{\"end\":"+time+",\"hits\":"+hits+",\"faults\":"+faults+",\"cold\":"+cold
+				+",\"evictClean\":"+(evictions - evictDirty)+",\"evictDirty\":"+evictDirty+",\"residentDirty\":"+residentDirty+"}");
+		}
+		else {
+			out.println(time+","+hits+","+faults+","+cold+","+(evictions - evictDirty)+","+evictDirty+","+residentDirty);
+		}
+		windows++;
+		windowEnd = time + window;
+		this.faults += faults;
+		this.cold += cold;
+		this.evictions += evictions;
+		this.writes += evictDirty;
+	}
+	public void close() throws IOException {
+		if(sim.getTotalMemAcc() + window != windowEnd) endWindow();		//the last, partial window
+		if(json) {
+			out.print("],\"reuseDistance\":");
+			writeJson(reuse);
+			out.print(",\"evictionAge\":");
+			writeJson(evictionAge);
+			out.println("}");
+		}
+		out.close();
+		if(out.checkError()) throw new IOException("Failed to write stats file");
+		if(histogramFile != null) {
+			//one table, each row with the share of references its count was taken from
+			PrintWriter h = new PrintWriter(new BufferedWriter(new FileWriter(histogramFile)));
+			h.println("histogram,low,high,count,sample_rate");
+			writeCsv(h, "reuse_distance", reuse, 1.0 / (1 << SAMPLE_SHIFT));
+			writeCsv(h, "eviction_age", evictionAge, 1.0 / (1 << SAMPLE_SHIFT));
+			h.close();
+			if(h.checkError()) throw new IOException("Failed to write "+histogramFile);
+		}
+	}
+	private static void writeCsv(PrintWriter h, String name, LogHistogram hist, double rate) {
+		for(int i=0; i<LogHistogram.BUCKETS; i++) {
+			if(hist.countAt(i) > 0) h.println(name+","+LogHistogram.lowAt(i)+","+LogHistogram.highAt(i)+","+hist.countAt(i)+","+rate);
+		}
+	}
+	private void writeJson(LogHistogram h) {
+		out.print("{\"count\":"+h.count()+",\"max\":"+h.max()+",\"p50\":"+h.percentile(0.5)+",\"p90\":"+h.percentile(0.9)
+			+",\"p99\":"+h.percentile(0.99)+",\"buckets\":[");
+		boolean first = true;
+		for(int i=0; i<LogHistogram.BUCKETS; i++) {
+			if(h.countAt(i) == 0) continue;
+			out.print((first ? "" : ",")+"["+LogHistogram.lowAt(i)+","+LogHistogram.highAt(i)+","+h.countAt(i)+"]");
+			first = false;
+		}
+		out.print("]}");
+	}
+}
+
+class LogHistogram {
+	//values below 32 get a bucket each, above that every power of two is split into 16 buckets, so a bucket is at
+	//most 1/16 of its lower bound wide (about 6%) and any long fits in under a thousand buckets
+	private static final int SUB_BITS = 4;
+	private static final int SUB = 1 << SUB_BITS;
+	public static final int BUCKETS = (64 - SUB_BITS) * SUB + SUB;
+	private long[] counts;
+	private long count;
+	private long max;
+	
+	public LogHistogram() {
+		this.counts = new long[BUCKETS];
+	}
+	public static int indexOf(long value) {
+		int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+		return (shift << SUB_BITS) + (int)(value >>> shift);
+	}
+	public static long lowAt(int index) {
+		if(index < 2*SUB) return index;
+		int shift = (index >>> SUB_BITS) - 1;
+		return (long)(index - (shift << SUB_BITS)) << shift;
+	}
+	public static long highAt(int index) {
+		//inclusive
+		if(index < 2*SUB) return index;
+		int shift = (index >>> SUB_BITS) - 1;
+		return lowAt(index) + (1L << shift) - 1;
+	}
+	public void record(long value) {
+		counts[indexOf(value)]++;
+		count++;
+		if(value > max) max = value;
+	}
+	public long countAt(int index) {
+		return counts[index];
+	}
+	public long count() {
+		return count;
+	}
+	public long max() {
+		return max;
+	}
+	public long percentile(double q) {
+		//upper bound of the bucket holding the q-th value, 0 if nothing was recorded
+		long rank = (long)Math.ceil(q * count);
+		long seen = 0;
+		for(int i=0; i<BUCKETS; i++) {
+			seen += counts[i];
+			if(seen >= rank && seen > 0) return Math.min(highAt(i), max);
 		}
+		return 0;
+	}
+}
+
+class sweepAlgo {
+	private MemoryTrace trace;
+	private String[] algs;
+	private int[] frames;
+	private int[] refreshes;
+	private int threads;
+	private String statsFile;		//null unless every run should also write its Metrics, one file per combination
+	private long window;
+	
+	public sweepAlgo(MemoryTrace trace, String[] algs, int[] frames, int[] refreshes, int threads) {
+		this.trace = trace;
+		this.algs = algs;
+		this.frames = frames;
+		this.refreshes = refreshes;
+		this.threads = threads;
+	}
+	public void setMetrics(String statsFile, long window) {
+		this.statsFile = statsFile;
+		this.window = window;
 	}
 	public boolean run() {
-		String temp="";
-		int pageNum=0, dirty=0, frameNum=0;
-		int indexCtr=0;
-		try {
-		BufferedReader bRead = new BufferedReader(new FileReader(new File (filename)));
-		BufferedReader bRead2 = new BufferedReader(new FileReader(new File (filename)));
-		//first loop through tracefile to populate hashtable<pageNum, LList<int>>
-		while( (temp = bRead2.readLine()) != null ) {
-			pageNum = Integer.parseInt(temp.substring(0, 5), 16);
-			hashtable.get(pageNum).add(indexCtr);
-			indexCtr++;
-		}
-		
-		while( (temp = bRead.readLine()) != null ) 
-		{
-							//System.out.println("CURRENT\t\t READLINE: "+temp);
-			pageNum = Integer.parseInt(temp.substring(0, 5), 16);
-							//System.out.println("Page number: "+pageNum+"");
-			PageTableEntry pte = table.getPage(pageNum);
-							//System.out.println("got page");
-			if(pte==null) {		//not currently in PageTable
-				//initialize and add to table
-				if(temp.substring(temp.length()-1).equals("W")) {
-					dirty = 1;
-				}
-				else {
-					dirty = 0;
-				}
-				table.addPage(pageNum, 1, 1, dirty, frameNum);	//since not in PageTable, need to add the new page 
-			}
-			else {	//simply change the PTE values - reference, valid, and dirty bits
-				if(temp.substring(temp.length()-1).equals("W")) {
-					dirty = 1;
+		//one task per combination, refresh only multiplies out for nru
+		ArrayList<String> names = new ArrayList<String>();
+		ArrayList<Callable<long[]>> tasks = new ArrayList<Callable<long[]>>();
+		for(String alg : algs) {
+			for(int n : frames) {
+				if(alg.equals("nru")) {
+					for(int r : refreshes) {
+						names.add(alg+","+n+","+r);
+						tasks.add(task(alg, n, r));
+					}
 				}
 				else {
-					dirty = 0;
-				}
-				table.getPage(pageNum).setR(1);
-				table.getPage(pageNum).setD(dirty);
-				table.getPage(pageNum).setV(1);
-				
-			}
-			if(inFrameTable(pageNum)) {		//current reference is already in frameTable, no page fault!
-				System.out.println("Hit");
-				hashtable.get(pageNum).removeFirst();
-			}
-			else {		//page fault, need to add to frameTable
-				int pageToBeEvicted=-1;
-				totalPgFaults++;
-				if(frameNum < numFrames) {	//Space available in frameTable
-					frameTable[frameNum] = pageNum;
-					frameNum++;
-					hashtable.get(pageNum).removeFirst();
-					System.out.println("Page Fault - No Eviction");
-				}
-				else {	//frameTable is full
-					//select page to be evicted
-					hashtable.get(pageNum).removeFirst();
-					pageToBeEvicted = optSelectEvictPage();
-					
-					/*if(hashtable.get(frameTable[pageToBeEvicted]).size() > 0) {
-						hashtable.get(frameTable[pageToBeEvicted]).removeFirst();
-					}*/
-					
-					//remember that pageToBeEvicted is the index of pageNum in the frameTable that will be evicted, not the pageNum
-					table.getPage(frameTable[pageToBeEvicted]).setV(0);		//taking it out of frameTable - so it is invalid in pageTable now
-					table.getPage(frameTable[pageToBeEvicted]).setR(0);		//this means it is not referenced anymore either
-					
-					if(table.getPage(frameTable[pageToBeEvicted]).getD()==1) {
-						//need to write to disk
-						totalWritesToDisk++;
-						System.out.println("Page Fault - Evict Dirty"); //dirty page written to disk
-						table.getPage(frameTable[pageToBeEvicted]).setD(0);
-					}
-					else {
-						System.out.println("Page Fault - Evict Clean");
-					}
-					
-					frameTable[pageToBeEvicted] = pageNum;		//replace the evicted page with the current reference in frameTable
-						//already set valid bit earlier when dealing with the pageTable
-					
-					
+					names.add(alg+","+n+",");
+					tasks.add(task(alg, n, -1));
 				}
 			}
-			totalMemAcc++;	//each memory reference, regardless of result, is a memory access
-			
-			//check if in frameTable
-				//if it is, Hit
-				//else		//totalPgFaults++
-					//if space available in frameTable, Page Fault - No Eviction
-					//else, select a page to be evicted
-						//this is where the specific page replacement algorithm comes in
-						//if the dirty bit for the pageToBeEvicted == 0, Page Fault - Evict Clean
-						//else, Page Fault - Evict Dirty	//totalWritesToDisk++
-			
-			//totalMemAcc++
 		}
-			//System.out.println(hashtable.toString());
-			System.out.println("Algorithm:	OPT");
-			System.out.println("Number of frames:	"+numFrames+"");
-			System.out.println("Total memory accesses:  "+totalMemAcc+"");
-			System.out.println("Total page faults:  "+totalPgFaults+"");
-			System.out.println("Total writes to disk:   "+totalWritesToDisk+"");
-		} catch(IOException e) {
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			List<Future<long[]>> results = pool.invokeAll(tasks);
+			StringBuilder out = new StringBuilder();
+			out.append("algorithm,frames,refresh,accesses,faults,writes\n");
+			for(int i=0; i<results.size(); i++) {
+				long[] r = results.get(i).get();
+				out.append(names.get(i)).append(',').append(r[0]).append(',').append(r[1]).append(',').append(r[2]).append('\n');
+			}
+			System.out.print(out);
+			System.out.flush();
+		} catch(InterruptedException e) {
 			e.printStackTrace();
+			return false;
+		} catch(ExecutionException e) {
+			e.getCause().printStackTrace();
+			return false;
+		} finally {
+			pool.shutdown();
 		}
-		return false;
-	}
-	public boolean inFrameTable(int pageNum) {		//just to check whether the page is in the frameTable
-		for(int i=0; i<frameTable.length; i++) {			
-			if(frameTable[i]==pageNum) return true;
-		}
-		return false;
+		return true;
 	}
-	
-	public int optSelectEvictPage() {
-		int maxIndex = 0;
-		int maxIndexPageNum = 0;
-		for(int i=0;i<numFrames;i++) {	//to select a page to be evicted, we need to see which valid frame has the largest next tracefile index and select that OR select a page that has an empty linkedlist
-			if(hashtable.get(frameTable[i]).peekFirst() != null) {
-				if(hashtable.get(frameTable[i]).peekFirst() > maxIndex) {	//if it is greater
-					maxIndex = hashtable.get(frameTable[i]).peekFirst();		//set maxIndex value to the first value in the page's LList
-					maxIndexPageNum = i;										//save frameTable index of the page
+	private Callable<long[]> task(final String alg, final int n, final int refresh) {
+		return new Callable<long[]>() {
+			public long[] call() throws IOException {
+				PolicyConfig config = new PolicyConfig(n);
+				config.refresh = refresh;
+				Simulator sim = new Simulator(trace, n, PolicyRegistry.create(alg, config), new SummarySink());
+				if(statsFile != null) {
+					sim.setMetrics(new Metrics(Metrics.fileFor(statsFile, alg+"-"+n+(refresh > 0 ? "-"+refresh : "")), window));
 				}
-						
+				sim.simulate();
+				return new long[] {sim.getTotalMemAcc(), sim.getTotalPgFaults(), sim.getTotalWritesToDisk()};
 			}
-			else {	//this page has no more memory references, so return the index of it in frameTable
-				return i;
+		};
+	}
+	public static int[] parseList(String list) {
+		//comma separated values, each a single number, a doubling range "8-1024" or a stepped range "100-1000:100",
+		//null if any of them is not a number or a range that goes up
+		ArrayList<Integer> values = new ArrayList<Integer>();
+		try {
+			for(String item : list.split(",")) {
+				int dash = item.indexOf('-');
+				if(dash < 0) {
+					values.add(Integer.parseInt(item));
+					continue;
+				}
+				int colon = item.indexOf(':');
+				int lo = Integer.parseInt(item.substring(0, dash));
+				int hi = Integer.parseInt(colon < 0 ? item.substring(dash+1) : item.substring(dash+1, colon));
+				int step = colon < 0 ? 0 : Integer.parseInt(item.substring(colon+1));
+				if(lo < 1 || lo > hi || (colon >= 0 && step < 1)) return null;
+				for(long v=lo; v<=hi; v = (step == 0) ? v*2 : v+step) {
+					values.add((int)v);
+				}
 			}
+		} catch(NumberFormatException e) {
+			return null;
 		}
-		return maxIndexPageNum;
+		int[] result = new int[values.size()];
+		for(int i=0; i<result.length; i++) result[i] = values.get(i);
+		return result;
 	}
 }
 
-class clockAlgo {
+class wsAlgo {
 	private String filename;
-	private int numFrames;
-	private int totalMemAcc, totalPgFaults, totalWritesToDisk;
-	private int[] frameTable;
-	private PageTable table;
+	private int[] taus;
+	private long interval;		//print W for every tau each interval references
+	private int pageShift;
 	
-	public clockAlgo(String file, int frames) {
+	public wsAlgo(String file, int[] taus, long interval, int pageShift) {
 		this.filename = file;
-		this.numFrames = frames;
-		this.totalMemAcc = 0;
-		this.totalPgFaults = 0;
-		this.totalWritesToDisk = 0;
-		this.frameTable = new int[numFrames];
-		this.table = new PageTable();
-		for(int i=0; i<numFrames; i++) {
-			this.frameTable[i]=-1;
-		}
+		this.taus = taus;
+		this.interval = interval;
+		this.pageShift = pageShift;
 	}
 	public boolean run() {
-		String temp="";
-		int pageNum=0, dirty=0, frameNum=0;
-		int pointer=0;		//used for clock algorithm
+		//W(t,tau) counts the references in (t-tau, t] that are still the last reference to their page. Mark those in
+		//a bitmap over time: a reference sets its own mark and clears the mark of the page's previous reference. Every
+		//window slides by one reference per step, so W for each tau changes by +1 for the new mark, -1 if the cleared
+		//mark was inside the window and -1 if the reference sliding out at t-tau is still marked. The bitmap only has to
+		//reach back max(tau) references, so it is a ring, and memory does not grow with the trace.
+		int maxTau = 0;
+		for(int tau : taus) maxTau = Math.max(maxTau, tau);
+		int ringBits = 64;
+		while(ringBits <= maxTau) ringBits <<= 1;
+		long[] marks = new long[ringBits >>> 6];
+		long ringMask = ringBits - 1;
+		PageDirectory pages = new PageDirectory(true);		//page ids of (process, pageNum), as in the Simulator
+		long[] lastRef = new long[PageDirectory.FLAT_PAGES];		//time of each page's last reference by page id, 0 if never referenced (time starts at 1)
+		long[] w = new long[taus.length];
+		long[] sum = new long[taus.length];
+		long[] peak = new long[taus.length];
+		long time = 0;
+		long nextPrint = interval;
+		StringBuilder out = new StringBuilder();
+		out.append("time");
+		for(int tau : taus) out.append(",W").append(tau);
+		out.append('\n');
 		try {
-		BufferedReader bRead = new BufferedReader(new FileReader(new File (filename)));
-		while( (temp = bRead.readLine()) != null ) {
-							//System.out.println("CURRENT\t\t READLINE: "+temp);
-			pageNum = Integer.parseInt(temp.substring(0, 5), 16);
-							//System.out.println("Page number: "+pageNum+"");
-			PageTableEntry pte = table.getPage(pageNum);
-							//System.out.println("got page");
-			if(pte==null) {		//not currently in PageTable
-				//initialize and add to table
-				if(temp.substring(temp.length()-1).equals("W")) {
-					dirty = 1;
-				}
-				else {
-					dirty = 0;
+			TraceReader reader = TraceReader.open(filename, pageShift);
+			while(reader.next()) {
+				int pageNum = pages.idOf(reader.pid(), reader.pageNum());
+				if(pageNum >= lastRef.length) lastRef = Arrays.copyOf(lastRef, Math.max(pages.limit(), lastRef.length*2));
+				time++;
+				long prev = lastRef[pageNum];
+				if(prev != 0 && time - prev < ringBits) {
+					long pos = prev & ringMask;
+					marks[(int)(pos >>> 6)] &= ~(1L << pos);
 				}
-				table.addPage(pageNum, 1, 1, dirty, frameNum);	//since not in PageTable, need to add the new page 
-			}
-			else {	//simply change the PTE values - reference, valid, and dirty bits
-				if(temp.substring(temp.length()-1).equals("W")) {
-					dirty = 1;
-				}
-				else {
-					dirty = 0;
-				}
-				table.getPage(pageNum).setR(1);
-				table.getPage(pageNum).setD(dirty);
-				table.getPage(pageNum).setV(1);
-				
-			}
-			if(inFrameTable(pageNum)) {		//current reference is already in frameTable, no page fault!
-				System.out.println("Hit");
-			}
-			else {		//page fault, need to add to frameTable
-				totalPgFaults++;
-				if(frameNum < numFrames) {	//Space available in frameTable
-					frameTable[frameNum] = pageNum;
-					frameNum++;
-					System.out.println("Page Fault - No Eviction");
-				}
-				else {	//frameTable is full
-					//select page to be evicted
-					while(true) {
-						if(table.getPage(frameTable[pointer]).getR()==1) {	//still referenced in current cycle
-							table.getPage(frameTable[pointer]).setR(0);		//reset R bit to 0
-							pointer++;										//increment pointer and move on
-							if(pointer==numFrames) pointer=0;				//reset to 0 if it is currently indicating out of bounds
-						}
-						else {		//found the page to be evicted - ref bit is equal to 0
-							table.getPage(frameTable[pointer]).setV(0);		//taking it out of frameTable - so it is invalid in pageTable now
-							table.getPage(frameTable[pointer]).setR(0);		//this means it is not referenced anymore either
-							if(table.getPage(frameTable[pointer]).getD()==1) {
-								//need to write to disk
-								totalWritesToDisk++;
-								System.out.println("Page Fault - Evict Dirty");
-								table.getPage(frameTable[pointer]).setD(0);
-							}
-							else {
-								System.out.println("Page Fault - Evict Clean");
-							}
-							
-							frameTable[pointer] = pageNum;		//replace the evicted page with the current reference in frameTable
-								//already set valid bit earlier when dealing with the pageTable
-					
-							
-							
-							pointer++;
-							if(pointer==numFrames) pointer=0;				//reset to 0 if it is currently indicating out of bounds
-							break;
-						}
+				long pos = time & ringMask;
+				marks[(int)(pos >>> 6)] |= 1L << pos;
+				lastRef[pageNum] = time;
+				for(int k=0; k<taus.length; k++) {
+					long tau = taus[k];
+					long size = w[k] + 1;
+					if(prev != 0 && time - prev <= tau) size--;		//the page was already in the window
+					long leaving = time - tau;		//reference that leaves the window this step
+					if(leaving >= 1) {
+						long p = leaving & ringMask;
+						if((marks[(int)(p >>> 6)] & (1L << p)) != 0) size--;
 					}
-					//remember that pageToBeEvicted is the index in the frameTable of pageNum to be evicted, not the pageNum
-					
+					w[k] = size;
+					sum[k] += size;
+					if(size > peak[k]) peak[k] = size;
+				}
+				if(time == nextPrint) {
+					appendRow(out, time, w);
+					nextPrint += interval;
 				}
 			}
-			totalMemAcc++;	//each memory reference, regardless of result, is a memory access
-			
-			//check if in frameTable
-				//if it is, Hit
-				//else		//totalPgFaults++
-					//if space available in frameTable, Page Fault - No Eviction
-					//else, select a page to be evicted
-						//this is where the specific page replacement algorithm comes in
-						//if the dirty bit for the pageToBeEvicted == 0, Page Fault - Evict Clean
-						//else, Page Fault - Evict Dirty	//totalWritesToDisk++
-			
-			//totalMemAcc++
-		}
-			System.out.println("Algorithm:	Clock");
-			System.out.println("Number of frames:	"+numFrames+"");
-			System.out.println("Total memory accesses:  "+totalMemAcc+"");
-			System.out.println("Total page faults:  "+totalPgFaults+"");
-			System.out.println("Total writes to disk:   "+totalWritesToDisk+"");
+			reader.close();
 		} catch(IOException e) {
 			e.printStackTrace();
+			return false;
 		}
-		return false;
+		if(time + interval != nextPrint) appendRow(out, time, w);		//the last, partial interval
+		out.append('\n');
+		out.append("tau,average,peak\n");
+		for(int k=0; k<taus.length; k++) {
+			out.append(taus[k]).append(',').append(time == 0 ? 0.0 : (double)sum[k] / time).append(',').append(peak[k]).append('\n');
+		}
+		System.out.print(out);
+		System.out.flush();
+		return true;
 	}
-	public boolean inFrameTable(int pageNum) {		//just to check whether the page is in the frameTable
-		for(int i=0; i<frameTable.length; i++) {			
-			if(frameTable[i]==pageNum) return true;
+	private void appendRow(StringBuilder out, long time, long[] w) {
+		out.append(time);
+		for(long size : w) out.append(',').append(size);
+		out.append('\n');
+		if(out.length() > (1 << 16)) {
+			System.out.print(out);
+			out.setLength(0);
 		}
-		return false;
 	}
 }
 
-class nruAlgo {
+class mrcAlgo {
 	private String filename;
-	private int numFrames;
-	private int totalMemAcc, totalPgFaults, totalWritesToDisk;
-	private int[] frameTable;
-	private PageTable table;
-	private Random rand;
-	private int refresh;
-	private int rCtr;
-	private ArrayList<Integer> class0;
-	private ArrayList<Integer> class1;
-	private ArrayList<Integer> class2;
-	private ArrayList<Integer> class3;
+	private int maxFrames;
+	private String pickedAlg;
+	private long totalMemAcc;
+	private long[] missDepth;		//missDepth[k] counts references that fault with k or fewer frames (k == maxFrames: every frame count)
+	private long[] writeDepth;		//writeDepth[k] counts dirty evictions that happen with k or fewer frames
+	private long[] writeAt;		//writeAt[k] counts dirty evictions that happen with exactly k frames
+	private int pageShift;
+	//SHARDS sampling, for lru only
+	public static final long SAMPLE_SPACE = 1L << 32;		//hash values a page can get, the rate is threshold / SAMPLE_SPACE
+	public static final int GROUPS = 16;		//page groups the error bounds are estimated from, leaving out one at a time
+	private double rate;		//0 for the exact curve
+	private int sampleSize;		//0 for a fixed rate, otherwise the most pages tracked at once
+	private double[] sampleMiss;		//missDepth, weighted by 1/rate
+	private double[] sampleWrites;		//writeDepth, weighted by 1/rate
+	private double[][] groupMiss;		//missDepth of the sample without group g, weighted by GROUPS/(GROUPS-1)/rate
+	private double sampleRefs;		//sampled references, weighted the same, against totalMemAcc
+	private double[] groupRefs;
+	private double sampleCold;		//first references to sampled pages, weighted the same, apart from missDepth
+	private double[] groupCold;
 	
-	public nruAlgo(String file, int frames, int refresh) {
+	public mrcAlgo(String file, int maxFrames, String pickedAlg, int pageShift) {
 		this.filename = file;
-		this.numFrames = frames;
+		this.pageShift = pageShift;
+		this.maxFrames = maxFrames;
+		this.pickedAlg = pickedAlg;
 		this.totalMemAcc = 0;
-		this.totalPgFaults = 0;
-		this.totalWritesToDisk = 0;
-		this.frameTable = new int[numFrames];
-		this.table = new PageTable();
-		for(int i=0; i<numFrames; i++) {
-			this.frameTable[i]=-1;
-		}
-		this.rand = new Random();
-		this.refresh = refresh;
-		rCtr = 0;
-		this.class0 = new ArrayList<Integer>();
-		this.class1 = new ArrayList<Integer>();
-		this.class2 = new ArrayList<Integer>();
-		this.class3 = new ArrayList<Integer>();
+		this.missDepth = new long[maxFrames+1];
+		this.writeDepth = new long[maxFrames+1];
+		this.writeAt = new long[maxFrames+1];
+	}
+	public void setSampling(double rate, int sampleSize) {		//rate in (0, 1], and the sample size or 0
+		this.rate = rate;
+		this.sampleSize = sampleSize;
 	}
 	public boolean run() {
-		String temp="";
-		int pageNum=0, dirty=0, frameNum=0;
 		try {
-		BufferedReader bRead = new BufferedReader(new FileReader(new File (filename)));
-		while( (temp = bRead.readLine()) != null ) {
-							//System.out.println("CURRENT\t\t READLINE: "+temp);
-			pageNum = Integer.parseInt(temp.substring(0, 5), 16);
-							//System.out.println("Page number: "+pageNum+"");
-			PageTableEntry pte = table.getPage(pageNum);
-							//System.out.println("got page");
-			if(pte==null) {		//not currently in PageTable
-				//initialize and add to table
-				if(temp.substring(temp.length()-1).equals("W")) {
-					dirty = 1;
-				}
-				else {
-					dirty = 0;
-				}
-				table.addPage(pageNum, 1, 1, dirty, frameNum);	//since not in PageTable, need to add the new page 
+			if(pickedAlg.equals("opt")) optStack();
+			else if(rate > 0) sampledLruStack();
+			else lruStack();
+		} catch(IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		if(rate > 0) {
+			printSampled();
+			return true;
+		}
+		//faults(n) is every reference that misses with n frames, i.e. the suffix sum of missDepth from n up
+		StringBuilder out = new StringBuilder();
+		out.append("frames,faults,writes\n");
+		long[] faults = new long[maxFrames+2];
+		long[] writes = new long[maxFrames+2];
+		for(int n=maxFrames; n>=1; n--) {
+			faults[n] = faults[n+1] + missDepth[n];
+			writes[n] = writes[n+1] + writeDepth[n];
+		}
+		for(int n=1; n<=maxFrames; n++) {
+			out.append(n).append(',').append(faults[n]).append(',').append(writes[n] + writeAt[n]).append('\n');
+			if(out.length() > (1 << 16)) {
+				System.out.print(out);
+				out.setLength(0);
 			}
-			else {	//simply change the PTE values - reference, valid, and dirty bits
-				if(temp.substring(temp.length()-1).equals("W")) {
-					dirty = 1;
-				}
-				else {
-					dirty = 0;
-				}
-				table.getPage(pageNum).setR(1);
-				table.getPage(pageNum).setD(dirty);
-				table.getPage(pageNum).setV(1);
-				
-			}
-			if(inFrameTable(pageNum)) {		//current reference is already in frameTable, no page fault!
-				System.out.println("Hit");
-			}
-			else {		//page fault, need to add to frameTable
-				totalPgFaults++;
-				if(frameNum < numFrames) {	//Space available in frameTable
-					frameTable[frameNum] = pageNum;
-					frameNum++;
-					System.out.println("Page Fault - No Eviction");
-					
-					if(table.getPage(pageNum).getR()==0) {
-						if(table.getPage(pageNum).getD()==0) {
-							//class 0
-							class0.add(frameNum-1);		//already incremented frameNum
-						}
-						else {
-							//class 1
-							class1.add(frameNum-1);		//^
-						}
-					}
-					else {
-						if(table.getPage(pageNum).getD()==0) {
-							//class 2
-							class2.add(frameNum-1);		//^
-						}
-						else {
-							//class 3
-							class3.add(frameNum-1);		//^
-							
-						}
+		}
+		System.out.print(out);
+		System.out.flush();
+		return true;
+	}
+	private void printSampled() {
+		//the same suffix sums, with 95% bounds from a delete-a-group jackknife over the curves without each group.
+		//Reuses are scaled to the references that were not first ones, as the sample rarely gets exactly its share
+		double scale = reuseScale(sampleRefs, sampleCold);
+		double[] groupScale = new double[GROUPS];
+		for(int g=0; g<GROUPS; g++) groupScale[g] = reuseScale(groupRefs[g], groupCold[g]);
+		StringBuilder out = new StringBuilder();
+		out.append("frames,faults,writes,faults_low,faults_high\n");
+		double[] groupFaults = Arrays.copyOf(groupCold, GROUPS);
+		double[] faults = new double[maxFrames+2];
+		faults[maxFrames+1] = sampleCold;
+		double[] writes = new double[maxFrames+2];
+		double[] error = new double[maxFrames+2];
+		for(int n=maxFrames; n>=1; n--) {
+			double mean = 0;
+			for(int g=0; g<GROUPS; g++) {
+				groupFaults[g] += groupMiss[g][n] * groupScale[g];
+				mean += groupFaults[g] / GROUPS;
+			}
+			double squares = 0;
+			for(int g=0; g<GROUPS; g++) {
+				double d = groupFaults[g] - mean;
+				squares += d*d;
+			}
+			faults[n] = faults[n+1] + sampleMiss[n] * scale;
+			writes[n] = writes[n+1] + sampleWrites[n] * scale;
+			error[n] = 1.96 * Math.sqrt(squares * (GROUPS-1) / GROUPS);
+		}
+		for(int n=1; n<=maxFrames; n++) {
+			out.append(n).append(',').append(Math.round(faults[n])).append(',').append(Math.round(writes[n]));
+			out.append(',').append(Math.round(Math.max(0, faults[n] - error[n]))).append(',').append(Math.round(faults[n] + error[n])).append('\n');
+			if(out.length() > (1 << 16)) {
+				System.out.print(out);
+				out.setLength(0);
+			}
+		}
+		System.out.print(out);
+		System.out.flush();
+	}
+	private double reuseScale(double refs, double cold) {
+		double reuses = totalMemAcc - cold;		//can only go negative from a far too small sample
+		return refs > cold && reuses > 0 ? reuses / (refs - cold) : 0;
+	}
+	
+	public void lruStack() throws IOException {
+		//for LRU the stack distance of a reference is the number of distinct pages touched since the last reference to the same page,
+		//and it hits with n frames exactly when that distance is less than n
+		PageDirectory pages = new PageDirectory(true);		//page ids of (process, pageNum), as in the Simulator
+		int[] lastTime = new int[PageDirectory.FLAT_PAGES];		//slot in the tree of each page's last reference by page id, -1 if never referenced
+		Arrays.fill(lastTime, -1);
+		byte[] lastDirty = new byte[PageDirectory.FLAT_PAGES];	//whether the last reference to the page was a write
+		ReuseDistanceTree tree = new ReuseDistanceTree(lastTime, 1);
+		TraceReader reader = TraceReader.open(filename, pageShift);
+		while(reader.next()) {
+			int pageNum = pages.idOf(reader.pid(), reader.pageNum());
+			if(pageNum >= lastTime.length) {
+				int n = lastTime.length;
+				lastTime = Arrays.copyOf(lastTime, Math.max(pages.limit(), n*2));
+				Arrays.fill(lastTime, n, lastTime.length, -1);
+				lastDirty = Arrays.copyOf(lastDirty, lastTime.length);
+				tree.setLastTime(lastTime);
+			}
+			int slot = lastTime[pageNum];
+			if(slot < 0) {		//first touch, a fault for every frame count
+				missDepth[maxFrames]++;
+			}
+			else {
+				int distance = tree.countAfter(slot);
+				if(distance > 0) missDepth[Math.min(distance, maxFrames)]++;
+				//a dirty page gets written back when it is evicted before being referenced again, which happens with distance or fewer frames
+				if(lastDirty[pageNum] == 1 && distance > 0) writeDepth[Math.min(distance, maxFrames)]++;
+				tree.remove(slot);
+			}
+			lastTime[pageNum] = tree.add(pageNum, 0);
+			lastDirty[pageNum] = (byte)reader.dirty();
+			totalMemAcc++;
+		}
+		reader.close();
+		//pages still dirty at the end were evicted with fewer frames than the distinct pages touched after them
+		int[] live = tree.liveAfterEach();
+		for(int slot=0; slot<live.length; slot++) {
+			int pageNum = tree.pageAt(slot);
+			if(pageNum >= 0 && lastTime[pageNum] == slot && lastDirty[pageNum] == 1 && live[slot] > 0) {
+				writeDepth[Math.min(live[slot], maxFrames)]++;
+			}
+		}
+	}
+	
+	public void sampledLruStack() throws IOException {
+		//SHARDS (Waldspurger et al., FAST '15): only the pages whose hash is under a threshold are tracked, each on every
+		//reference, so the reuse distances among them are the true ones shrunk by the sampling rate. A sampled reference
+		//stands for 1/rate references at distance/rate pages. With a sample size the threshold starts at the rate and
+		//drops whenever more pages than that are tracked, the page with the largest hash leaving the sample.
+		//The tree counts the sampled pages per group, by other bits of the hash, for the curves without each group in printSampled.
+		long threshold = (long)Math.ceil(rate * SAMPLE_SPACE);		//pages with the top 32 bits of their hash below this are sampled
+		PageDirectory pages = new PageDirectory(false);		//ids for the sampled pages only
+		int[] lastTime = new int[1024];		//as in lruStack, by page id
+		Arrays.fill(lastTime, -1);
+		byte[] lastDirty = new byte[1024];
+		ReuseDistanceTree tree = new ReuseDistanceTree(lastTime, GROUPS);
+		int[] after = new int[GROUPS];		//distinct pages of each group since the last reference
+		long[] heap = new long[sampleSize > 0 ? sampleSize : 0];		//max-heap of hash << 31 | page id of the sampled pages, for a sample size
+		int heapSize = 0;
+		sampleMiss = new double[maxFrames+1];
+		sampleWrites = new double[maxFrames+1];
+		groupMiss = new double[GROUPS][maxFrames+1];
+		sampleRefs = 0;
+		groupRefs = new double[GROUPS];
+		sampleCold = 0;
+		groupCold = new double[GROUPS];
+		TraceReader reader = TraceReader.open(filename, pageShift);
+		while(reader.next()) {
+			totalMemAcc++;
+			long hash = sampleHash(reader.pid(), reader.pageNum());
+			long key = hash >>> 32;
+			if(key >= threshold) continue;		//most references stop here, before any lookup
+			int pageNum = pages.idOf(reader.pid(), reader.pageNum());
+			if(pageNum >= lastTime.length) {
+				int n = lastTime.length;
+				lastTime = Arrays.copyOf(lastTime, Math.max(pages.limit(), n*2));
+				Arrays.fill(lastTime, n, lastTime.length, -1);
+				lastDirty = Arrays.copyOf(lastDirty, lastTime.length);
+				tree.setLastTime(lastTime);
+			}
+			int slot = lastTime[pageNum];
+			if(slot < 0) {		//a page new to the sample
+				if(heap.length > 0 && heapSize == heap.length) {
+					if(key >= (heap[0] >>> 31)) {		//it would be the one to leave
+						threshold = key;
+						continue;
 					}
+					//the largest hash leaves, and the threshold drops to it
+					int out = (int)(heap[0] & 0x7fffffff);
+					threshold = heap[0] >>> 31;
+					heap[0] = heap[--heapSize];
+					siftDown(heap, heapSize, 0);
+					tree.remove(lastTime[out]);
+					lastTime[out] = -1;
 				}
-				else {	//frameTable is full
-					//select page to be evicted
-					
-					int pageToBeEvicted = -1;
-					int classIndex = -1;
-					//begin with class0 til class3. empty means going up to the next class, and there will always be at least one in the class4 list
-					if(class0.size() < 1) {
-						if(class1.size() < 1) {
-							if(class2.size() < 1) {
-								//take from class 3
-								classIndex = rand.nextInt(class3.size());
-								pageToBeEvicted = class3.get(classIndex);
-								class3.remove(classIndex);
-							}
-							else {
-								//take from class 2
-								classIndex = rand.nextInt(class2.size());
-								pageToBeEvicted = class2.get(classIndex);
-								class2.remove(classIndex);
-							}
-						}
-						else {
-							//take from class 1
-							classIndex = rand.nextInt(class1.size());
-							pageToBeEvicted = class1.get(classIndex);
-							class1.remove(classIndex);
-						}
-					}
-					else {
-						//take from class 0
-						classIndex = rand.nextInt(class0.size());
-						pageToBeEvicted = class0.get(classIndex);
-						class0.remove(classIndex);	
-					}
-					//pageToBeEvicted is the index of pageNum found in frameTable that will be evicted
-					table.getPage(frameTable[pageToBeEvicted]).setV(0);		//taking it out of frameTable - so it is invalid in pageTable now
-					table.getPage(frameTable[pageToBeEvicted]).setR(0);		//this means it is not referenced anymore either
-					
-					if(table.getPage(frameTable[pageToBeEvicted]).getD()==1) {
-						//need to write to disk
-						totalWritesToDisk++;
-						System.out.println("Page Fault - Evict Dirty");
-						table.getPage(frameTable[pageToBeEvicted]).setD(0);
-					}
-					else {
-						System.out.println("Page Fault - Evict Clean");
-					}
-					frameTable[pageToBeEvicted] = pageNum;		//replace the evicted page with the current reference in frameTable
-						//already set valid bit earlier when dealing with the pageTable
-					
-					
-					
-					if(table.getPage(pageNum).getD()==0) {	//at this point, the current memory reference has replaced the evicted page in the frameTable
-						//current memory reference is clean - class 2
-						class2.add(pageToBeEvicted);
-					}
-					else {
-						//current memory reference is dirty - class 3
-						class3.add(pageToBeEvicted);
-					}
+				if(heap.length > 0) {
+					heap[heapSize] = (key << 31) | pageNum;
+					siftUp(heap, heapSize++);
 				}
 			}
-			totalMemAcc++;	//each memory reference, regardless of result, is a memory access
-			rCtr++;			//incrementing the refresh counter after each memory reference
-			if(rCtr == refresh) {	//time for refresh
-				for(int i=0;i<class0.size();i++) {
-					table.getPage(frameTable[class0.get(i)]).setR(0);
-				}
-				class0.clear();
-				for(int i=0;i<class1.size();i++) {
-					table.getPage(frameTable[class1.get(i)]).setR(0);
+			double weight = (double)SAMPLE_SPACE / threshold;
+			double groupWeight = weight * GROUPS / (GROUPS-1);		//without one group the rate is that much lower
+			int g = (int)(hash & (GROUPS-1));
+			sampleRefs += weight;
+			for(int h=0; h<GROUPS; h++) {
+				if(h != g) groupRefs[h] += groupWeight;
+			}
+			if(slot < 0) {
+				sampleCold += weight;
+				for(int h=0; h<GROUPS; h++) {
+					if(h != g) groupCold[h] += groupWeight;
 				}
-				class1.clear();
-				for(int i=0;i<class2.size();i++) {
-					table.getPage(frameTable[class2.get(i)]).setR(0);
+			}
+			else {
+				tree.countAfter(slot, after);
+				int pagesAfter = 0;
+				for(int h=0; h<GROUPS; h++) pagesAfter += after[h];
+				long distance = (long)(pagesAfter * weight);
+				if(distance > 0) {
+					sampleMiss[(int)Math.min(distance, maxFrames)] += weight;
+					if(lastDirty[pageNum] == 1) sampleWrites[(int)Math.min(distance, maxFrames)] += weight;
 				}
-				class2.clear();
-				for(int i=0;i<class3.size();i++) {
-					table.getPage(frameTable[class3.get(i)]).setR(0);
+				for(int h=0; h<GROUPS; h++) {
+					if(h == g) continue;
+					distance = (long)((pagesAfter - after[h]) * groupWeight);
+					if(distance > 0) groupMiss[h][(int)Math.min(distance, maxFrames)] += groupWeight;
 				}
-				class3.clear();
-				rCtr=0;
-				classSetup(frameNum, rCtr);
+				tree.remove(slot);
 			}
-			
-			//check if in frameTable
-				//if it is, Hit
-				//else		//totalPgFaults++
-					//if space available in frameTable, Page Fault - No Eviction
-					//else, select a page to be evicted
-						//this is where the specific page replacement algorithm comes in
-						//if the dirty bit for the pageToBeEvicted == 0, Page Fault - Evict Clean
-						//else, Page Fault - Evict Dirty	//totalWritesToDisk++
-			
-			//totalMemAcc++
+			lastTime[pageNum] = tree.add(pageNum, g);
+			lastDirty[pageNum] = (byte)reader.dirty();
 		}
-			System.out.println("Algorithm:	NRU");
-			System.out.println("Number of frames:	"+numFrames+"");
-			System.out.println("Total memory accesses:  "+totalMemAcc+"");
-			System.out.println("Total page faults:  "+totalPgFaults+"");
-			System.out.println("Total writes to disk:   "+totalWritesToDisk+"");
-		} catch(IOException e) {
-			e.printStackTrace();
+		reader.close();
+		double weight = (double)SAMPLE_SPACE / threshold;
+		int[] live = tree.liveAfterEach();
+		for(int slot=0; slot<live.length; slot++) {
+			int pageNum = tree.pageAt(slot);
+			long distance = (long)(live[slot] * weight);
+			if(pageNum >= 0 && lastTime[pageNum] == slot && lastDirty[pageNum] == 1 && distance > 0) {
+				sampleWrites[(int)Math.min(distance, maxFrames)] += weight;
+			}
 		}
-		return false;
 	}
-	public boolean inFrameTable(int pageNum) {		//just to check whether the page is in the frameTable
-		for(int i=0; i<frameTable.length; i++) {			
-			if(frameTable[i]==pageNum) return true;
+	private static long sampleHash(int pid, long pageNum) {
+		//murmur3's 64-bit finalizer, so every bit depends on the whole (pid, pageNum)
+		long h = pageNum * 0x9E3779B97F4A7C15L + pid;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+	private static void siftUp(long[] heap, int i) {
+		long key = heap[i];
+		while(i > 0 && heap[(i-1) >> 1] < key) {
+			heap[i] = heap[(i-1) >> 1];
+			i = (i-1) >> 1;
 		}
-		return false;
+		heap[i] = key;
+	}
+	private static void siftDown(long[] heap, int size, int i) {
+		long key = heap[i];
+		while(2*i+1 < size) {
+			int child = 2*i+1;
+			if(child+1 < size && heap[child+1] > heap[child]) child++;
+			if(heap[child] <= key) break;
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = key;
 	}
 	
-	public boolean classSetup(int frameNum, int rCtr) {
-		int max=0;
-		if(frameNum >= numFrames) max=numFrames;
-		else max=frameNum;
-		if(rCtr==0) {
-			for(int i=0; i<max; i++) {
-				if(table.getPage(frameTable[i]).getR()==0) {
-					if(table.getPage(frameTable[i]).getD()==0) {
-						//class 0
-						class0.add(i);
-					}
-					else {
-						//class 1
-						class1.add(i);
-					}
+	public void optStack() throws IOException {
+		//Mattson's OPT stack: stack[0..k-1] is exactly what OPT keeps in k frames, so one stack answers every frame count.
+		//The referenced page moves to the top and the displaced pages bubble down, each level keeping whichever page is used sooner.
+		//Only the top maxFrames levels matter for the curve, so the stack is cut off there.
+		TraceSource trace = new FileTraceSource(filename, pageShift);
+		if(TraceReader.isPipe(filename)) trace = MemoryTrace.load(trace);		//read twice, so stdin or a pipe is held in memory
+		int[] nextUse = optAlgo.buildNextUse(trace);
+		int[] stack = new int[maxFrames];
+		int depth = 0;
+		PageDirectory pages = new PageDirectory(true);		//page ids of (process, pageNum), as in the Simulator
+		int[] level = new int[PageDirectory.FLAT_PAGES];		//level of each page id in the stack, -1 if not in the top maxFrames
+		Arrays.fill(level, -1);
+		int[] priority = new int[PageDirectory.FLAT_PAGES];		//next use of each page, sooner stays higher
+		byte[] dirty = new byte[PageDirectory.FLAT_PAGES];
+		int indexCtr = 0;
+		TraceReader reader = trace.open();
+		while(reader.next()) {
+			int pageNum = pages.idOf(reader.pid(), reader.pageNum());
+			if(pageNum >= level.length) {
+				int n = level.length;
+				level = Arrays.copyOf(level, Math.max(pages.limit(), n*2));
+				Arrays.fill(level, n, level.length, -1);
+				priority = Arrays.copyOf(priority, level.length);
+				dirty = Arrays.copyOf(dirty, level.length);
+			}
+			int k = level[pageNum];
+			priority[pageNum] = nextUse[indexCtr];
+			dirty[pageNum] = (byte)reader.dirty();
+			indexCtr++;
+			totalMemAcc++;
+			if(k == 0) continue;		//already on top, a hit for every frame count
+			
+			int end;		//the level the carried page finally settles into
+			if(k < 0) {
+				missDepth[maxFrames]++;
+				end = depth;
+			}
+			else {
+				missDepth[k]++;		//faults with k or fewer frames
+				end = k;
+			}
+			int carry = stack[0];
+			stack[0] = pageNum;
+			level[pageNum] = 0;
+			for(int j=1; j<end; j++) {
+				//carry leaves the top j levels, so with j frames it was just evicted
+				if(dirty[carry] == 1) writeAt[j]++;
+				int other = stack[j];
+				if(priority[carry] < priority[other]) {
+					stack[j] = carry;
+					level[carry] = j;
+					carry = other;
+				}
+			}
+			if(end > 0) {
+				if(dirty[carry] == 1) writeAt[end]++;
+				if(end < maxFrames) {
+					stack[end] = carry;
+					level[carry] = end;
+					if(end == depth) depth++;
 				}
 				else {
-					if(table.getPage(frameTable[i]).getD()==0) {
-						//class 2
-						class2.add(i);
-					}
-					else {
-						class3.add(i);
-						//class 3
-					}
+					level[carry] = -1;		//fell out of the tracked part of the stack
 				}
 			}
-		return true;
+			else {
+				depth = 1;		//very first reference
+			}
 		}
-		else return false;
+		reader.close();
 	}
 }
 
+class ReuseDistanceTree {
+	//Fenwick tree over time slots, slot t holds 1 while the page referenced at time t has not been referenced again.
+	//The number of distinct pages touched after slot s is then a suffix sum. When the slots run out, the live ones are
+	//renumbered from 0, so memory stays proportional to the number of distinct pages rather than the trace length.
+	//With more than one group the live slots are counted per group of pages, node i keeping its counts in
+	//tree[i*groups .. i*groups+groups-1], so one suffix sum gives how many pages of every group were touched after a slot.
+	private int groups;
+	private int[] tree;
+	private int[] slotPage;		//page referenced in each slot, -1 once it has been referenced again
+	private byte[] slotGroup;		//group of that page, null with one group
+	private int[] lastTime;		//shared with the caller, updated here when slots are renumbered
+	private int next;		//next free slot
+	private int live;
+	private int[] groupLive;		//live slots of each group
+	
+	public ReuseDistanceTree(int[] lastTime, int groups) {
+		this.groups = groups;
+		this.tree = new int[((1 << 12) + 1) * groups];
+		this.slotPage = new int[1 << 12];
+		this.slotGroup = groups > 1 ? new byte[1 << 12] : null;
+		this.lastTime = lastTime;
+		this.next = 0;
+		this.live = 0;
+		this.groupLive = new int[groups];
+	}
+	public int add(int pageNum, int group) {
+		if(next == slotPage.length) compact();
+		int slot = next++;
+		slotPage[slot] = pageNum;
+		if(slotGroup != null) slotGroup[slot] = (byte)group;
+		for(int i=slot+1; i<=slotPage.length; i+=i&(-i)) tree[i*groups + group]++;
+		live++;
+		groupLive[group]++;
+		return slot;
+	}
+	public void remove(int slot) {
+		int group = slotGroup != null ? slotGroup[slot] : 0;
+		slotPage[slot] = -1;
+		for(int i=slot+1; i<=slotPage.length; i+=i&(-i)) tree[i*groups + group]--;
+		live--;
+		groupLive[group]--;
+	}
+	public int countAfter(int slot) {		//live slots after this one
+		int sum = 0;
+		if(groups == 1) {
+			for(int i=slot+1; i>0; i-=i&(-i)) sum += tree[i];
+		}
+		else {
+			for(int i=slot+1; i>0; i-=i&(-i)) {
+				for(int g=0; g<groups; g++) sum += tree[i*groups + g];
+			}
+		}
+		return live - sum;
+	}
+	public void countAfter(int slot, int[] after) {		//live slots after this one, by group
+		System.arraycopy(groupLive, 0, after, 0, groups);
+		for(int i=slot+1; i>0; i-=i&(-i)) {
+			for(int g=0; g<groups; g++) after[g] -= tree[i*groups + g];
+		}
+	}
+	public int pageAt(int slot) {
+		return slot < next ? slotPage[slot] : -1;
+	}
+	public void setLastTime(int[] lastTime) {		//the caller grew its array
+		this.lastTime = lastTime;
+	}
+	public int[] liveAfterEach() {		//countAfter for every slot in one sweep
+		int[] after = new int[next];
+		int count = 0;
+		for(int slot=next-1; slot>=0; slot--) {
+			after[slot] = count;
+			if(slotPage[slot] >= 0) count++;
+		}
+		return after;
+	}
+	private void compact() {
+		int size = slotPage.length;
+		if(live > size/2) size *= 2;		//keep at least half the slots free so compaction stays amortized O(1)
+		int[] pages = new int[size];
+		byte[] pageGroups = slotGroup != null ? new byte[size] : null;
+		int n = 0;
+		for(int slot=0; slot<next; slot++) {
+			int pageNum = slotPage[slot];
+			if(pageNum >= 0) {
+				pages[n] = pageNum;
+				if(pageGroups != null) pageGroups[n] = slotGroup[slot];
+				lastTime[pageNum] = n;
+				n++;
+			}
+		}
+		Arrays.fill(pages, n, size, -1);
+		slotPage = pages;
+		slotGroup = pageGroups;
+		next = n;
+		//rebuild the tree in O(size * groups): every live slot is a leading 1
+		tree = new int[(size+1) * groups];
+		for(int i=1; i<=size; i++) {
+			if(i <= n) tree[i*groups + (slotGroup != null ? slotGroup[i-1] : 0)]++;
+			int parent = i + (i&(-i));
+			if(parent <= size) {
+				for(int g=0; g<groups; g++) tree[parent*groups + g] += tree[i*groups + g];
+			}
+		}
+	}
+}
 
-
-class fifoAlgo {
+class benchAlgo {
+	//benchmarks for vmsim, see BENCH. Each benchmark is warmed up, then measured several times, and the median, min and
+	//max go into one CSV row. Traces come from a fixed seed per pattern, so the same parameters always measure the same work.
+	//mp64 mixes four processes with 64-bit page numbers, so a page directory that hands out an id twice shows up as a hang.
+	private static final String[] PATTERNS = {"uniform", "hotset", "scan", "loop", "mp64"};
+	private static final int[] FRAMES = {64, 1024, 16384};
+	private static volatile long sink;		//every benchmark folds its result in here so the JIT cannot drop the work
 	
-	private String filename;
-	private int numFrames;
-	private int totalMemAcc, totalPgFaults, totalWritesToDisk;
-	private int[] frameTable;
-	private PageTable table;
-	private Random rand;
+	private int warmups;
+	private int iterations;
+	private int numRefs;
+	private PrintWriter out;
 	
-	public fifoAlgo(String file, int frames) {
-		this.filename = file;
-		this.numFrames = frames;
-		this.totalMemAcc = 0;
-		this.totalPgFaults = 0;
-		this.totalWritesToDisk = 0;
-		this.frameTable = new int[numFrames];
-		this.table = new PageTable();
-		for(int i=0; i<numFrames; i++) {
-			this.frameTable[i]=-1;
-		}
-		
-		this.rand = new Random();
+	public benchAlgo(int warmups, int iterations, int numRefs, PrintWriter out) {
+		this.warmups = warmups;
+		this.iterations = iterations;
+		this.numRefs = numRefs;
+		this.out = out;
 	}
-	public boolean run() {
-		String temp="";
-		int pageNum=0, dirty=0, frameNum=0;
-		try 
-		{
-		BufferedReader bRead = new BufferedReader(new FileReader(new File (filename)));
-		while( (temp = bRead.readLine()) != null ) 
-		{
-							//System.out.println("CURRENT\t\t READLINE: "+temp);
-			pageNum = Integer.parseInt(temp.substring(0, 5), 16);
-							//System.out.println("Page number: "+pageNum+"");
-			PageTableEntry pte = table.getPage(pageNum);
-							//System.out.println("got page");
-			if(pte==null) {		//not currently in PageTable
-				//initialize and add to table
-				if(temp.substring(temp.length()-1).equals("W")) {
-					dirty = 1;
-				}
-				else {
-					dirty = 0;
-				}
-				table.addPage(pageNum, 1, 1, dirty, frameNum);	//since not in PageTable, need to add the new page 
+	
+	public void run() throws IOException {
+		out.println("# java "+System.getProperty("java.version")+", "+Runtime.getRuntime().availableProcessors()+" cpus, "+numRefs+" refs, "+warmups+" warmups, "+iterations+" iterations");
+		out.println("benchmark,pattern,frames,median,min,max,unit");
+		out.flush();
+		
+		//parsing, over the hotset pattern written out in both formats
+		final MemoryTrace hot = synthetic("hotset");
+		File dir = Files.createTempDirectory("vmsim-bench").toFile();
+		final File text = new File(dir, "bench.trace");
+		final File binary = new File(dir, "bench.bin");
+		writeText(hot, text);
+		BinaryTraceWriter writer = new BinaryTraceWriter(binary.getPath(), true, false);
+		TraceReader r = hot.open();
+		while(r.next()) writer.write(0, r.pageNum(), r.dirty());
+		writer.close();
+		measure("parse-text", "hotset", 0, "MB/s", text.length(), new Task() {
+			public long run() throws IOException {
+				return parse(text.getPath());
 			}
-			else {	//simply change the PTE values - reference, valid, and dirty bits
-				if(temp.substring(temp.length()-1).equals("W")) {
-					dirty = 1;
-				}
-				else {
-					dirty = 0;
-				}
-				table.getPage(pageNum).setR(1);
-				table.getPage(pageNum).setD(dirty);
-				table.getPage(pageNum).setV(1);
-				
-			}
-			if(inFrameTable(pageNum)) {		//current reference is already in frameTable, no page fault!
-				System.out.println("Hit");
-			}
-			else {		//page fault, need to add to frameTable
-				totalPgFaults++;
-				if(frameNum < numFrames) {	//Space available in frameTable
-					frameTable[frameNum] = pageNum;
-					frameNum++;
-					System.out.println("Page Fault - No Eviction");
-				}
-				else {	//frameTable is full
-					//select page to be evicted
-					int pageToBeEvicted = rand.nextInt(numFrames);	//generate a number between 0 and numFrames, inclusively and exclusively (i.e. 4 frames means 0/1/2/3)
-					//remember that pageToBeEvicted is the index of pageNum in the frameTable that will be evicted, not the pageNum
-					table.getPage(frameTable[pageToBeEvicted]).setV(0);		//taking it out of frameTable - so it is invalid in pageTable now
-					table.getPage(frameTable[pageToBeEvicted]).setR(0);		//this means it is not referenced anymore either
-					//int pageToBeEvicted = class0.nextInt(numFrames);
-					if(table.getPage(frameTable[pageToBeEvicted]).getD()==1) {
-						//need to write to disk
-						totalWritesToDisk++;
-						System.out.println("Page Fault - Evict Dirty");
-						table.getPage(frameTable[pageToBeEvicted]).setD(0);
-					}
+		});
+		measure("parse-binary", "hotset", 0, "MB/s", binary.length(), new Task() {
+			public long run() throws IOException {
+				return parse(binary.getPath());
+			}
+		});
+		text.delete();
+		binary.delete();
+		dir.delete();
+		
+		//page table and residency lookups, same access stream as the simulators see
+		final int[] pages = pagesOf(hot);
+		measure("pagetable", "hotset", 0, "Mops/s", pages.length, new Task() {
+			public long run() {
+				PackedPageTable table = new PackedPageTable();
+				long sum = 0;
+				for(int i=0; i<pages.length; i++) {
+					int p = pages[i];
+					if(!table.contains(p)) table.addPage(p, 1, 1, i & 1, 0);
 					else {
-						System.out.println("Page Fault - Evict Clean");
+						table.setR(p, 1);
+						table.setD(p, i & 1);
 					}
-					
-					frameTable[pageToBeEvicted] = pageNum;		//replace the evicted page with the current reference in frameTable
-						//already set valid bit earlier when dealing with the pageTable
-					
-					
+					sum += table.getD(p);
+				}
+				return sum;
+			}
+		});
+		measure("residency", "hotset", 0, "Mops/s", pages.length, new Task() {
+			public long run() {
+				ResidentIndex resident = new ResidentIndex();
+				for(int i=0; i<4096; i++) resident.load(pages[i], i);
+				long sum = 0;
+				for(int i=0; i<pages.length; i++) {
+					if(resident.contains(pages[i])) sum++;
+				}
+				return sum;
+			}
+		});
+		
+		//end-to-end simulation
+		for(String pattern : PATTERNS) {
+			final MemoryTrace trace = synthetic(pattern);
+			trace.nextUse();		//OPT's next-use pass is shared per trace, keep it out of the timings
+			for(final int frames : FRAMES) {
+				for(final String alg : new String[] {"opt", "clock", "bclock", "nru", "fifo", "sc", "rand", "arc", "car"}) {
+					measure(alg, pattern, frames, "Mrefs/s", trace.size(), new Task() {
+						public long run() throws IOException {
+							return simulate(alg, trace, frames);
+						}
+					});
 				}
 			}
-			totalMemAcc++;	//each memory reference, regardless of result, is a memory access
-			
-			//check if in frameTable
-				//if it is, Hit
-				//else		//totalPgFaults++
-					//if space available in frameTable, Page Fault - No Eviction
-					//else, select a page to be evicted
-						//this is where the specific page replacement algorithm comes in
-						//if the dirty bit for the pageToBeEvicted == 0, Page Fault - Evict Clean
-						//else, Page Fault - Evict Dirty	//totalWritesToDisk++
-			
-			//totalMemAcc++
 		}
-			System.out.println("Algorithm:	FIFO");
-			System.out.println("Number of frames:	"+numFrames+"");
-			System.out.println("Total memory accesses:  "+totalMemAcc+"");
-			System.out.println("Total page faults:  "+totalPgFaults+"");
-			System.out.println("Total writes to disk:   "+totalWritesToDisk+"");
-		} 
-		catch(IOException e) 
-		{
-			e.printStackTrace();
+	}
+	
+	private interface Task {
+		public long run() throws IOException;
+	}
+	
+	private void measure(String name, String pattern, int frames, String unit, long work, Task task) throws IOException {
+		for(int i=0; i<warmups; i++) sink += task.run();
+		double[] scores = new double[iterations];
+		for(int i=0; i<iterations; i++) {
+			long start = System.nanoTime();
+			sink += task.run();
+			long elapsed = Math.max(1, System.nanoTime() - start);
+			scores[i] = (work / 1e6) / (elapsed / 1e9);		//MB/s or millions of operations per second
 		}
-		return false;
+		Arrays.sort(scores);
+		out.printf("%s,%s,%d,%.3f,%.3f,%.3f,%s%n", name, pattern, frames, scores[iterations/2], scores[0], scores[iterations-1], unit);
+		out.flush();
+	}
+	
+	private static long parse(String filename) throws IOException {
+		TraceReader reader = TraceReader.open(filename);
+		long sum = 0;
+		while(reader.next()) sum += reader.pageNum() + reader.dirty();
+		reader.close();
+		return sum;
+	}
+	
+	private static long simulate(String alg, MemoryTrace trace, int frames) throws IOException {
+		PolicyConfig config = new PolicyConfig(frames);
+		config.refresh = 1000;
+		Simulator sim = new Simulator(trace, frames, PolicyRegistry.create(alg, config), new SummarySink());
+		sim.simulate();
+		return sim.getTotalPgFaults();
 	}
-	public boolean inFrameTable(int pageNum) {		//just to check whether the page is in the frameTable
-		for(int i=0; i<frameTable.length; i++) {			
-			if(frameTable[i]==pageNum) return true;
+	
+	private MemoryTrace synthetic(String pattern) throws IOException {
+		//fixed seed per pattern so every run of the benchmark sees the same references
+		Random rand = new Random(pattern.hashCode());
+		if(pattern.equals("mp64")) return multiProcess(rand);
+		int[] refs = new int[numRefs];
+		int page = rand.nextInt(1048576);
+		for(int i=0; i<numRefs; i++) {
+			if(pattern.equals("uniform")) {
+				page = rand.nextInt(1048576);
+			}
+			else if(pattern.equals("hotset")) {
+				//90% of references to 2048 hot pages, the rest anywhere
+				page = (rand.nextInt(10) < 9) ? rand.nextInt(2048) * 97 : rand.nextInt(1048576);
+			}
+			else if(pattern.equals("scan")) {
+				page = (page + 1) & 0xFFFFF;
+			}
+			else {
+				page = (i % 20000) * 13;		//a loop slightly larger than the biggest frame count
+			}
+			int dirty = (rand.nextInt(10) < 3) ? 1 : 0;
+			refs[i] = (page << 1) | dirty;
 		}
-		return false;
+		return new MemoryTrace(refs, numRefs);
 	}
 	
-}//end of fifoAlgo class 
\ No newline at end of file
+	private MemoryTrace multiProcess(Random rand) throws IOException {
+		//four processes, the first below 2^20 and the others above it and above 2^32, switching every 20 references or so
+		long[] bases = {0, 1L << 28, 0xffff00000L, 0x7fff0L};
+		MemoryTrace trace = new MemoryTrace(numRefs);
+		int process = 0;
+		for(int i=0; i<numRefs; i++) {
+			if(rand.nextInt(20) == 0) process = rand.nextInt(bases.length);
+			//80% of each process's references to 4096 hot pages, the rest over 2^22 pages
+			long page = bases[process] + ((rand.nextInt(10) < 8) ? rand.nextInt(4096) : rand.nextInt(1 << 22));
+			trace.add(process + 1, page, (rand.nextInt(10) < 3) ? 1 : 0);
+		}
+		return trace;
+	}
+	
+	private static int[] pagesOf(MemoryTrace trace) throws IOException {
+		int[] pages = new int[trace.size()];
+		TraceReader r = trace.open();
+		int i = 0;
+		while(r.next()) pages[i++] = (int)r.pageNum();
+		return pages;
+	}
+	
+	private static void writeText(MemoryTrace trace, File file) throws IOException {
+		PrintWriter w = new PrintWriter(new FileWriter(file));
+		TraceReader r = trace.open();
+		while(r.next()) {
+			w.printf("%05x000 %c%n", r.pageNum(), r.dirty() == 1 ? 'W' : 'R');
+		}
+		w.close();
+	}
+}